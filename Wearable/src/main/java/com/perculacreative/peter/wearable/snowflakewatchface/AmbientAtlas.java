@@ -0,0 +1,508 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every ambient frame of a day, one per minute, rendered once per display configuration and
+ * stored run-length encoded with 2 bits per pixel in a memory-mapped file. Drawing a minute then
+ * decodes its runs straight into a bitmap instead of composing the frame.
+ * <p>
+ * This is only used for low-bit ambient, whose frames have a black background and are drawn
+ * without anti-aliasing in just a few colors. The four colors of the palette are the first ones
+ * found while rendering, any further color is mapped to the palette color closest in luminance.
+ * <p>
+ * Frames can only be rendered while the face is in ambient mode, so generating the atlas may
+ * take several ambient sessions. The frames rendered so far stay in a partial file, whose frame
+ * count is that of the rendered frames, and the next session carries on from there. Each
+ * signature has its own file, the least recently used ones are deleted. A file:
+ * <pre>
+ * header: int magic, int version, int signature, int width, int height, int frame count,
+ *         int palette size, 4 * int palette
+ * index:  {@link #FRAME_COUNT} * (int offset, int run count, int count)
+ * runs:   short (2 bit palette index, 14 bit length - 1)
+ * </pre>
+ */
+public final class AmbientAtlas {
+    private static final String TAG = "AmbientAtlas";
+
+    /** One frame per minute of the day. */
+    public static final int FRAME_COUNT = (int) TimeUnit.DAYS.toMinutes(1);
+
+    private static final String DIR_NAME = "ambient_atlas";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final String PARTIAL_SUFFIX = ".part";
+    /** Files kept, enough for both mute settings with a partial file each. */
+    private static final int MAX_FILES = 4;
+
+    private static final int MAGIC = 0x414d4241; // "AMBA"
+    private static final int VERSION = 2;
+
+    private static final int PALETTE_SIZE = 4;
+    /** magic, version, signature, width, height, frame count, palette size, palette */
+    private static final int HEADER_SIZE = (7 + PALETTE_SIZE) * 4;
+    private static final int PALETTE_OFFSET = 7 * 4;
+    private static final int INDEX_ENTRY_SIZE = 3 * 4;
+
+    private static final int RUN_LENGTH_BITS = 14;
+    private static final int MAX_RUN_LENGTH = 1 << RUN_LENGTH_BITS;
+
+    /**
+     * Callback interface to receive the atlas once it has been mapped.
+     */
+    public interface OnLoadedListener {
+        /**
+         * Called on the main thread with the mapped atlas, or {@code null} if it couldn't be
+         * completed, e.g. because the face left ambient mode meanwhile.
+         */
+        void onAmbientAtlasLoaded(AmbientAtlas atlas);
+    }
+
+    private final ByteBuffer mBuffer;
+    private final int mSignature;
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mPalette = new int[PALETTE_SIZE];
+
+    private Bitmap mBitmap;
+    private int[] mRow;
+    private int mDecodedMinute = -1;
+
+    private AmbientAtlas(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mSignature = buffer.getInt(8);
+        mWidth = buffer.getInt(12);
+        mHeight = buffer.getInt(16);
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            mPalette[i] = buffer.getInt(PALETTE_OFFSET + i * 4);
+        }
+    }
+
+    public int getSignature() {
+        return mSignature;
+    }
+
+    /**
+     * Maps the atlas for {@code signature} from the app's files directory on a background thread,
+     * rendering the frames still missing with {@code renderer} first, and passes it to
+     * {@code listener} on the main thread.
+     *
+     * @param signature identifies everything the ambient frames depend on besides the time
+     * @param lock the render lock to hold while {@code renderer} draws a frame
+     */
+    public static void loadAsync(Context context, final int signature, final int width,
+            final int height, final AmbientPrerenderer.Callback renderer, final Object lock,
+            final OnLoadedListener listener) {
+        final File file = new File(new File(context.getFilesDir(), DIR_NAME),
+                Integer.toHexString(signature) + FILE_SUFFIX);
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final AmbientAtlas atlas = load(file, signature, width, height, renderer, lock);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onAmbientAtlasLoaded(atlas);
+                    }
+                });
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    /**
+     * Maps the atlas stored in {@code file}, generating it first if it doesn't match
+     * {@code signature} and the size. Returns {@code null} on I/O errors or if a frame couldn't
+     * be rendered, in which case the next call renders the remaining frames.
+     */
+    static synchronized AmbientAtlas load(File file, int signature, int width, int height,
+            AmbientPrerenderer.Callback renderer, Object lock) {
+        try {
+            AmbientAtlas atlas = map(file, signature, width, height);
+            if (atlas != null) {
+                // Keeps the file among the most recently used ones.
+                file.setLastModified(System.currentTimeMillis());
+                return atlas;
+            }
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            long start = System.currentTimeMillis();
+            boolean complete = write(file, signature, width, height, renderer, lock);
+            trim(dir);
+            if (!complete) {
+                return null;
+            }
+            atlas = map(file, signature, width, height);
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Finished ambient atlas in " + (System.currentTimeMillis() - start)
+                        + " ms, " + file.length() / 1024 + " KB");
+            }
+            return atlas;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to load the ambient atlas", e);
+            return null;
+        }
+    }
+
+    /**
+     * Maps {@code file} read-only, returning {@code null} if it doesn't exist or doesn't match
+     * {@code signature} and the size.
+     */
+    private static AmbientAtlas map(File file, int signature, int width, int height)
+            throws IOException {
+        if (!file.exists() || file.length() < HEADER_SIZE + FRAME_COUNT * INDEX_ENTRY_SIZE) {
+            return null;
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != signature || buffer.getInt(12) != width
+                    || buffer.getInt(16) != height || buffer.getInt(20) != FRAME_COUNT) {
+                return null;
+            }
+            return new AmbientAtlas(buffer);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            input.close();
+        }
+    }
+
+    /**
+     * Renders and encodes the frames into a partial file next to {@code file}, resuming after the
+     * frames it already holds, and replaces {@code file} with it once all frames are done. The
+     * partial file is deleted if writing fails.
+     *
+     * @return {@code false} if {@code renderer} couldn't render a frame, the frames rendered
+     *     until then are kept for the next call
+     */
+    static boolean write(File file, int signature, int width, int height,
+            AmbientPrerenderer.Callback renderer, Object lock) throws IOException {
+        final CachedLayer layer = new CachedLayer();
+        layer.setSize(width, height);
+        final Calendar calendar = Calendar.getInstance();
+        final int[] row = new int[width];
+        final int[] palette = new int[PALETTE_SIZE];
+        final int[] paletteSize = new int[1];
+        ByteBuffer runs = ByteBuffer.allocate(64 * 1024).order(ByteOrder.nativeOrder());
+        ByteBuffer index = ByteBuffer.allocate(FRAME_COUNT * INDEX_ENTRY_SIZE)
+                .order(ByteOrder.nativeOrder());
+
+        File partial = new File(file.getPath() + PARTIAL_SUFFIX);
+        RandomAccessFile output = new RandomAccessFile(partial, "rw");
+        boolean keep = false;
+        int frames = 0;
+        try {
+            FileChannel channel = output.getChannel();
+            long offset = resume(channel, signature, width, height, palette, paletteSize, index);
+            frames = index.position() / INDEX_ENTRY_SIZE;
+            output.setLength(offset);
+            channel.position(offset);
+
+            for (; frames < FRAME_COUNT; frames++) {
+                calendar.set(Calendar.HOUR_OF_DAY, frames / 60);
+                calendar.set(Calendar.MINUTE, frames % 60);
+                calendar.set(Calendar.SECOND, 0);
+                calendar.set(Calendar.MILLISECOND, 0);
+                int count;
+                synchronized (lock) {
+                    Canvas canvas = layer.beginRecording();
+                    count = canvas == null ? AmbientPrerenderer.NOT_RENDERED
+                            : renderer.onRenderAmbientFrame(canvas, calendar);
+                }
+                if (count == AmbientPrerenderer.NOT_RENDERED) {
+                    break;
+                }
+
+                runs.clear();
+                Bitmap bitmap = layer.getBitmap();
+                int level = -1;
+                int length = 0;
+                for (int y = 0; y < height; y++) {
+                    bitmap.getPixels(row, 0, width, 0, y, width, 1);
+                    for (int x = 0; x < width; x++) {
+                        int pixelLevel = findLevel(palette, paletteSize, row[x]);
+                        if (pixelLevel == level && length < MAX_RUN_LENGTH) {
+                            length++;
+                            continue;
+                        }
+                        if (length > 0) {
+                            runs = putRun(runs, level, length);
+                        }
+                        level = pixelLevel;
+                        length = 1;
+                    }
+                }
+                runs = putRun(runs, level, length);
+                runs.flip();
+
+                index.putInt((int) offset);
+                index.putInt(runs.remaining() / 2);
+                index.putInt(count);
+                offset += runs.remaining();
+                while (runs.hasRemaining()) {
+                    channel.write(runs);
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(signature);
+            header.putInt(width);
+            header.putInt(height);
+            header.putInt(frames);
+            header.putInt(paletteSize[0]);
+            for (int i = 0; i < PALETTE_SIZE; i++) {
+                header.putInt(palette[i]);
+            }
+            header.flip();
+            index.flip();
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (index.hasRemaining()) {
+                channel.write(index);
+            }
+            channel.force(false);
+            keep = frames > 0;
+        } finally {
+            output.close();
+            layer.release();
+            if (!keep) {
+                partial.delete();
+            }
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Rendered " + frames + " of " + FRAME_COUNT + " ambient frames");
+        }
+        if (frames < FRAME_COUNT) {
+            return false;
+        }
+        if (!partial.renameTo(file)) {
+            partial.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the palette and index of the frames {@code channel} already holds into
+     * {@code palette}, {@code paletteSize} and {@code index}, if it is a partial file for
+     * {@code signature} and the size.
+     *
+     * @return the offset to append the runs of the next frame at
+     */
+    private static long resume(FileChannel channel, int signature, int width, int height,
+            int[] palette, int[] paletteSize, ByteBuffer index) throws IOException {
+        long start = HEADER_SIZE + FRAME_COUNT * INDEX_ENTRY_SIZE;
+        if (channel.size() < start) {
+            return start;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        channel.position(0);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+            // Keeps reading until the header is complete.
+        }
+        int frames = header.getInt(20);
+        int size = header.getInt(24);
+        if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                || header.getInt(8) != signature || header.getInt(12) != width
+                || header.getInt(16) != height || frames <= 0 || frames >= FRAME_COUNT
+                || size < 0 || size > PALETTE_SIZE) {
+            return start;
+        }
+        index.limit(frames * INDEX_ENTRY_SIZE);
+        while (index.hasRemaining() && channel.read(index) >= 0) {
+            // Keeps reading until the index of the rendered frames is complete.
+        }
+        if (index.hasRemaining()) {
+            index.clear();
+            return start;
+        }
+        index.limit(index.capacity());
+        int last = (frames - 1) * INDEX_ENTRY_SIZE;
+        long end = index.getInt(last) + 2L * index.getInt(last + 4);
+        if (end > channel.size()) {
+            index.clear();
+            return start;
+        }
+        paletteSize[0] = size;
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            palette[i] = header.getInt(PALETTE_OFFSET + i * 4);
+        }
+        return end;
+    }
+
+    /** Deletes the least recently used files past {@link #MAX_FILES}. */
+    private static void trim(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        int count = files.length;
+        while (count > MAX_FILES) {
+            File oldest = null;
+            for (File file : files) {
+                if (file != null && (oldest == null
+                        || file.lastModified() < oldest.lastModified())) {
+                    oldest = file;
+                }
+            }
+            for (int i = 0; i < files.length; i++) {
+                if (files[i] == oldest) {
+                    files[i] = null;
+                }
+            }
+            oldest.delete();
+            count--;
+        }
+    }
+
+    /**
+     * Returns the palette index for {@code color}, adding it to the palette while there is room.
+     */
+    private static int findLevel(int[] palette, int[] paletteSize, int color) {
+        int size = paletteSize[0];
+        for (int i = 0; i < size; i++) {
+            if (palette[i] == color) {
+                return i;
+            }
+        }
+        if (size < PALETTE_SIZE) {
+            palette[size] = color;
+            paletteSize[0] = size + 1;
+            return size;
+        }
+        int luminance = getLuminance(color);
+        int closest = 0;
+        for (int i = 1; i < PALETTE_SIZE; i++) {
+            if (Math.abs(getLuminance(palette[i]) - luminance)
+                    < Math.abs(getLuminance(palette[closest]) - luminance)) {
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    private static int getLuminance(int color) {
+        return (Color.red(color) * 299 + Color.green(color) * 587 + Color.blue(color) * 114)
+                / 1000;
+    }
+
+    private static ByteBuffer putRun(ByteBuffer runs, int level, int length) {
+        if (runs.remaining() < 2) {
+            ByteBuffer grown = ByteBuffer.allocate(runs.capacity() * 2).order(runs.order());
+            runs.flip();
+            grown.put(runs);
+            runs = grown;
+        }
+        runs.putShort((short) ((level << RUN_LENGTH_BITS) | (length - 1)));
+        return runs;
+    }
+
+    /**
+     * Draws the frame for the minute of the day onto {@code canvas}, decoding it unless it was
+     * the last one drawn.
+     *
+     * @return whether the atlas holds the frame for the minute and count, otherwise the caller
+     *     must draw the frame itself
+     */
+    public boolean draw(Canvas canvas, int minuteOfDay, int count) {
+        int entry = HEADER_SIZE + minuteOfDay * INDEX_ENTRY_SIZE;
+        if (minuteOfDay < 0 || minuteOfDay >= FRAME_COUNT
+                || mBuffer.getInt(entry + 8) != count) {
+            return false;
+        }
+        if (mBitmap == null) {
+            mBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.RGB_565);
+            mRow = new int[mWidth];
+            mDecodedMinute = -1;
+        }
+        if (minuteOfDay != mDecodedMinute) {
+            decode(mBuffer.getInt(entry), mBuffer.getInt(entry + 4));
+            mDecodedMinute = minuteOfDay;
+        }
+        canvas.drawBitmap(mBitmap, 0, 0, null);
+        return true;
+    }
+
+    /** Decodes {@code runCount} runs starting at {@code offset} into the bitmap, row by row. */
+    private void decode(int offset, int runCount) {
+        final ByteBuffer buffer = mBuffer;
+        final int[] row = mRow;
+        final int width = mWidth;
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < runCount && y < mHeight; i++) {
+            int run = buffer.getShort(offset + i * 2) & 0xffff;
+            int color = mPalette[run >>> RUN_LENGTH_BITS];
+            int length = (run & (MAX_RUN_LENGTH - 1)) + 1;
+            while (length > 0 && y < mHeight) {
+                int n = Math.min(length, width - x);
+                Arrays.fill(row, x, x + n, color);
+                x += n;
+                length -= n;
+                if (x == width) {
+                    mBitmap.setPixels(row, 0, width, 0, y, width, 1);
+                    x = 0;
+                    y++;
+                }
+            }
+        }
+    }
+
+    /** Returns the bytes allocated for the decode bitmap, the mapping isn't on the heap. */
+    public long getByteCount() {
+        return mBitmap != null ? mBitmap.getAllocationByteCount() : 0;
+    }
+
+    /** Frees the decode bitmap. The mapping stays until the atlas is garbage collected. */
+    public void release() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+        mDecodedMinute = -1;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders the next ambient frame on a background thread, right after the current one was drawn.
+ * Ambient mode only updates once a minute, so the next frame is fully known in advance, and the
+ * draw after the next time tick becomes a single blit.
+ * <p>
+ * Rendering shares the engine's caches, so it runs with the engine's render lock held. Every draw
+ * on the main thread must hold the same lock. Anything that changes the ambient frame other than
+ * the time or count must call {@link #invalidate()}, which discards the pre-rendered frames.
+ */
+public final class AmbientPrerenderer implements BitmapBudget.Cache {
+    private static final String TAG = "AmbientPrerenderer";
+
+    private static final int MSG_RENDER = 0;
+
+    /** Returned by {@link Callback#onRenderAmbientFrame} when the frame couldn't be rendered. */
+    public static final int NOT_RENDERED = Integer.MIN_VALUE;
+
+    /**
+     * Callback interface to render the frames of an {@link AmbientPrerenderer}.
+     */
+    public interface Callback {
+        /**
+         * Renders the ambient frame for the time of {@code calendar} into {@code canvas}. Called
+         * on the pre-render thread with the render lock held.
+         *
+         * @return the count the frame shows, or {@link #NOT_RENDERED}
+         */
+        int onRenderAmbientFrame(Canvas canvas, Calendar calendar);
+    }
+
+    private final Callback mCallback;
+    private final Object mLock;
+
+    /** Used on the pre-render thread only. */
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    /** Bumped by {@link #invalidate()}, frames rendered for an older generation are dropped. */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /** The frame blitted on the main thread and the one rendered ahead, guarded by the lock. */
+    private CachedLayer mFront = new CachedLayer();
+    private CachedLayer mBack = new CachedLayer();
+    private int mFrontMinute = -1;
+    private int mFrontCount;
+    private int mFrontGeneration;
+    private int mBackMinute = -1;
+    private int mBackCount;
+    private int mBackGeneration;
+    private long mBackRenderNanos;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    private int mHitCount;
+    private int mMissCount;
+    private long mRenderNanos;
+
+    /** @param lock the render lock held by every draw using the same caches as the callback */
+    public AmbientPrerenderer(Callback callback, Object lock) {
+        mCallback = callback;
+        mLock = lock;
+    }
+
+    /** Starts the pre-render thread. */
+    public void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message message) {
+                if (message.what == MSG_RENDER) {
+                    render(((long) message.arg1 << 32) | (message.arg2 & 0xffffffffL));
+                }
+            }
+        };
+    }
+
+    /** Stops the pre-render thread and frees the frames. */
+    public void quit() {
+        if (mThread != null) {
+            mThread.quit();
+            mThread = null;
+            mHandler = null;
+        }
+        release();
+    }
+
+    /** Sets the size of the frames in pixels. */
+    public void setSize(int width, int height) {
+        synchronized (mLock) {
+            mFront.setSize(width, height);
+            mBack.setSize(width, height);
+        }
+    }
+
+    /** Sets the bitmap config of the frames. Changing it discards them. */
+    public void setConfig(Bitmap.Config config) {
+        synchronized (mLock) {
+            mFront.setConfig(config);
+            mBack.setConfig(config);
+        }
+    }
+
+    /** Discards the pre-rendered frames, including one being rendered right now. */
+    public void invalidate() {
+        mGeneration.incrementAndGet();
+        if (mHandler != null) {
+            mHandler.removeMessages(MSG_RENDER);
+        }
+    }
+
+    /** Renders the frame for {@code timeMs} on the pre-render thread. */
+    public void requestRender(long timeMs) {
+        if (mHandler == null) {
+            return;
+        }
+        mHandler.removeMessages(MSG_RENDER);
+        mHandler.obtainMessage(MSG_RENDER, (int) (timeMs >>> 32), (int) timeMs).sendToTarget();
+    }
+
+    /**
+     * Blits the pre-rendered frame for the minute of the day and count onto {@code canvas}.
+     *
+     * @return whether there was such a frame, otherwise the caller must draw the frame itself
+     */
+    public boolean draw(Canvas canvas, int minuteOfDay, int count) {
+        synchronized (mLock) {
+            int generation = mGeneration.get();
+            if (mBackMinute == minuteOfDay && mBackCount == count
+                    && mBackGeneration == generation && mBack.isValid()) {
+                CachedLayer layer = mFront;
+                mFront = mBack;
+                mBack = layer;
+                mFrontMinute = mBackMinute;
+                mFrontCount = mBackCount;
+                mFrontGeneration = mBackGeneration;
+                mBackMinute = -1;
+                mRenderNanos += mBackRenderNanos;
+            }
+            if (mFrontMinute == minuteOfDay && mFrontCount == count
+                    && mFrontGeneration == generation && mFront.isValid()) {
+                mFront.draw(canvas, null);
+                mHitCount++;
+                return true;
+            }
+            mMissCount++;
+            return false;
+        }
+    }
+
+    /** Returns the bytes allocated for the frames. */
+    @Override // BitmapBudget.Cache
+    public long getByteCount() {
+        synchronized (mLock) {
+            return mFront.getByteCount() + mBack.getByteCount();
+        }
+    }
+
+    /** Frees the frames. They are allocated again by the next render. */
+    @Override // BitmapBudget.Cache
+    public void release() {
+        synchronized (mLock) {
+            mFront.release();
+            mBack.release();
+            mFrontMinute = -1;
+            mBackMinute = -1;
+        }
+    }
+
+    /** Number of ambient frames drawn as a single blit. */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Number of ambient frames that had to be drawn in full. */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /** Time the pre-render thread spent on the frames that were blitted. */
+    public long getRenderNanos() {
+        return mRenderNanos;
+    }
+
+    public void resetStats() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mRenderNanos = 0;
+    }
+
+    /** Runs on the pre-render thread. */
+    private void render(long timeMs) {
+        synchronized (mLock) {
+            int generation = mGeneration.get();
+            Canvas canvas = mBack.beginRecording();
+            if (canvas == null) {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            mCalendar.setTimeZone(TimeZone.getDefault());
+            mCalendar.setTimeInMillis(timeMs);
+            int count = mCallback.onRenderAmbientFrame(canvas, mCalendar);
+            if (count == NOT_RENDERED) {
+                mBack.invalidate();
+                mBackMinute = -1;
+                return;
+            }
+            mBack.endRecording();
+            mBackMinute = mCalendar.get(Calendar.HOUR_OF_DAY) * 60
+                    + mCalendar.get(Calendar.MINUTE);
+            mBackCount = count;
+            mBackGeneration = generation;
+            mBackRenderNanos = System.nanoTime() - startNanos;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import java.util.ArrayList;
+
+/**
+ * The paints, hand sprites and burn-in shift of ambient mode. They are kept apart from the
+ * interactive ones, so entering or leaving ambient mode only changes which set is drawn with.
+ * <p>
+ * The paints have no shadows and are aliased with low-bit ambient. With burn-in protection the
+ * strokes are thinner, text is only outlined and the content moves by a few pixels every minute.
+ * The paints are only rebuilt when the display properties change.
+ */
+public final class AmbientRenderer implements BitmapBudget.Cache {
+
+    private static final int HAND_COLOR = Color.WHITE;
+    private static final int SNOWFLAKE_COLOR = Color.GRAY;
+
+    /** Stroke width factor with burn-in protection, so that fewer pixels stay lit. */
+    private static final float BURN_IN_STROKE_SCALE = 0.5f;
+    /** Text outlines are this fraction of the hand stroke width. */
+    private static final float TEXT_STROKE_SCALE = 0.25f;
+
+    /** Pixels per step of the burn-in shift. */
+    private static final int SHIFT_STEP = 2;
+    /** Offsets in steps the content cycles through with burn-in protection, one per minute. */
+    private static final int[] SHIFT_X = {0, 1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] SHIFT_Y = {0, 0, 1, 1, 1, 0, -1, -1, -1};
+
+    private final float mStrokeWidth;
+    private final float mHourStrokeWidth;
+    private final float mRestStrokeWidth;
+    private final float mCenterTextSize;
+
+    private final Paint mBackgroundPaint = new Paint();
+    private final Paint mHandPaint = new Paint();
+    private final Paint mHourHandPaint = new Paint();
+    private final Paint mSnowflakePaint = new Paint();
+    private final Paint mCenterTextPaint = new Paint();
+
+    /** Ambient copies of interactive text paints and the colors they are drawn in. */
+    private final ArrayList<Paint> mTextSources = new ArrayList<>();
+    private final ArrayList<Paint> mTextPaints = new ArrayList<>();
+    private final ArrayList<Integer> mTextColors = new ArrayList<>();
+
+    private final HandSprite mHourHandSprite = new HandSprite();
+    private final HandSprite mMinuteHandSprite = new HandSprite();
+    private final HandSprite mCenterCircleSprite = new HandSprite();
+
+    private boolean mLowBitAmbient;
+    private boolean mBurnInProtection;
+
+    /**
+     * @param strokeWidth the stroke width of the minute hand and center circle
+     * @param hourStrokeWidth the stroke width of the hour hand
+     * @param restStrokeWidth the stroke width of the snowflake and tick marks
+     */
+    public AmbientRenderer(float strokeWidth, float hourStrokeWidth, float restStrokeWidth,
+            float centerTextSize, int backgroundColor) {
+        mStrokeWidth = strokeWidth;
+        mHourStrokeWidth = hourStrokeWidth;
+        mRestStrokeWidth = restStrokeWidth;
+        mCenterTextSize = centerTextSize;
+        mBackgroundPaint.setColor(backgroundColor);
+        buildPaints();
+    }
+
+    /**
+     * Rebuilds the paints for the display properties. Does nothing if they didn't change. Must not
+     * run while another thread draws with the paints.
+     */
+    public void setProperties(boolean lowBitAmbient, boolean burnInProtection) {
+        if (lowBitAmbient == mLowBitAmbient && burnInProtection == mBurnInProtection) {
+            return;
+        }
+        mLowBitAmbient = lowBitAmbient;
+        mBurnInProtection = burnInProtection;
+        buildPaints();
+        updateTextPaints();
+        invalidateSprites();
+    }
+
+    private void buildPaints() {
+        final boolean antiAlias = !mLowBitAmbient;
+        final float strokeScale = mBurnInProtection ? BURN_IN_STROKE_SCALE : 1;
+
+        buildStrokePaint(mHandPaint, HAND_COLOR, mStrokeWidth * strokeScale, antiAlias);
+        buildStrokePaint(mHourHandPaint, HAND_COLOR, mHourStrokeWidth * strokeScale, antiAlias);
+        buildStrokePaint(mSnowflakePaint, SNOWFLAKE_COLOR, mRestStrokeWidth * strokeScale,
+                antiAlias);
+
+        mCenterTextPaint.set(mHandPaint);
+        mCenterTextPaint.setTextSize(mCenterTextSize);
+        mCenterTextPaint.setStrokeWidth(getTextStrokeWidth());
+        mCenterTextPaint.setTextAlign(Paint.Align.CENTER);
+    }
+
+    private float getTextStrokeWidth() {
+        return mStrokeWidth * (mBurnInProtection ? BURN_IN_STROKE_SCALE : 1) * TEXT_STROKE_SCALE;
+    }
+
+    private static void buildStrokePaint(Paint paint, int color, float strokeWidth,
+            boolean antiAlias) {
+        paint.reset();
+        paint.setColor(color);
+        paint.setStrokeWidth(strokeWidth);
+        paint.setAntiAlias(antiAlias);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStyle(Paint.Style.STROKE);
+    }
+
+    /**
+     * Returns an ambient copy of the interactive text paint {@code source} drawn in
+     * {@code color}, outlined instead of filled with burn-in protection. It follows the typeface,
+     * size and alpha of {@code source} on {@link #updateTextPaints()}.
+     */
+    public Paint createTextPaint(Paint source, int color) {
+        Paint paint = new Paint();
+        mTextSources.add(source);
+        mTextPaints.add(paint);
+        mTextColors.add(color);
+        updateTextPaint(source, paint, color);
+        return paint;
+    }
+
+    /** Copies the interactive text paints again, after their typeface, size or alpha changed. */
+    public void updateTextPaints() {
+        for (int i = 0; i < mTextPaints.size(); i++) {
+            updateTextPaint(mTextSources.get(i), mTextPaints.get(i), mTextColors.get(i));
+        }
+    }
+
+    private void updateTextPaint(Paint source, Paint paint, int color) {
+        paint.set(source);
+        paint.clearShadowLayer();
+        paint.setColor(color);
+        paint.setAlpha(source.getAlpha());
+        paint.setAntiAlias(!mLowBitAmbient);
+        if (mBurnInProtection) {
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeWidth(getTextStrokeWidth());
+        }
+    }
+
+    public Paint getBackgroundPaint() {
+        return mBackgroundPaint;
+    }
+
+    public Paint getHandPaint() {
+        return mHandPaint;
+    }
+
+    public Paint getSnowflakePaint() {
+        return mSnowflakePaint;
+    }
+
+    public Paint getCenterTextPaint() {
+        return mCenterTextPaint;
+    }
+
+    public HandSprite getHourHandSprite() {
+        return mHourHandSprite;
+    }
+
+    public HandSprite getMinuteHandSprite() {
+        return mMinuteHandSprite;
+    }
+
+    public HandSprite getCenterCircleSprite() {
+        return mCenterCircleSprite;
+    }
+
+    /** Returns whether every hand sprite has been recorded. */
+    public boolean hasSprites() {
+        return mHourHandSprite.isValid() && mMinuteHandSprite.isValid()
+                && mCenterCircleSprite.isValid();
+    }
+
+    /** Records the hand sprites unless they are still valid. */
+    public void ensureSprites(float innerRadius, float hourHandLength, float minuteHandLength) {
+        if (hasSprites()) {
+            return;
+        }
+        mHourHandSprite.recordLine(innerRadius, hourHandLength, mHourHandPaint, 0);
+        mMinuteHandSprite.recordLine(innerRadius, minuteHandLength, mHandPaint, 0);
+        mCenterCircleSprite.recordCircle(innerRadius, mHandPaint, 0);
+    }
+
+    /** Marks the hand sprites as stale, e.g. after the hand lengths changed. */
+    public void invalidateSprites() {
+        mHourHandSprite.invalidate();
+        mMinuteHandSprite.invalidate();
+        mCenterCircleSprite.invalidate();
+    }
+
+    /**
+     * Clears {@code canvas} to black and moves its origin by the burn-in shift for the minute of
+     * the day, if burn-in protection is on. Call {@link Canvas#restore()} after drawing the frame
+     * if it returns {@code true}.
+     */
+    public boolean beginShift(Canvas canvas, int minuteOfDay) {
+        if (!mBurnInProtection) {
+            return false;
+        }
+        int step = minuteOfDay % SHIFT_X.length;
+        canvas.drawColor(Color.BLACK);
+        canvas.save();
+        canvas.translate(SHIFT_X[step] * SHIFT_STEP, SHIFT_Y[step] * SHIFT_STEP);
+        return true;
+    }
+
+    /** Returns the bytes allocated for the hand sprites. */
+    @Override // BitmapBudget.Cache
+    public long getByteCount() {
+        return mHourHandSprite.getByteCount() + mMinuteHandSprite.getByteCount()
+                + mCenterCircleSprite.getByteCount();
+    }
+
+    /** Frees the hand sprites. */
+    @Override // BitmapBudget.Cache
+    public void release() {
+        mHourHandSprite.release();
+        mMinuteHandSprite.release();
+        mCenterCircleSprite.release();
+    }
+}
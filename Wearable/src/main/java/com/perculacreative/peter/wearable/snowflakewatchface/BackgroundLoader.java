@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes the background photo, builds its variants and picks the hand colors from it on a
+ * background thread, so that neither a surface change nor a new photo blocks a frame.
+ * <p>
+ * Every request decodes from the original resource, subsampled with {@code inSampleSize} to
+ * just above the surface width, and scales it once to the surface width. The decode buffer is
+ * reused with {@code inBitmap} for the next request. The grayscale ambient variant is only built
+ * when ambient mode shows the photo, low-bit ambient and burn-in protection draw black instead.
+ * Results of requests that were overtaken by a newer one are dropped.
+ * <p>
+ * The results are stored in a {@link RenderAssetCache} after they were delivered, and a request
+ * whose assets are stored there skips all of the above.
+ */
+public final class BackgroundLoader {
+    private static final String TAG = "BackgroundLoader";
+
+    private static final int MSG_LOAD = 0;
+
+    /**
+     * Callback interface to receive the background variants of a {@link BackgroundLoader}.
+     */
+    public interface Callback {
+        /**
+         * Called on the main thread with the assets of the latest request. Nothing is delivered
+         * if the photo couldn't be decoded.
+         */
+        void onBackgroundLoaded(RenderAssetCache.Assets assets);
+    }
+
+    /** The parameters of one request, handed to the loader thread with its message. */
+    private static final class Request {
+        Resources resources;
+        int resId;
+        int width;
+        Bitmap.Config config;
+        boolean grayscale;
+        int cacheKey;
+        int generation;
+    }
+
+    private final Callback mCallback;
+    private final RenderAssetCache mAssetCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** Bumped by every request, results of older ones are dropped. */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    /** Used on the loader thread only. */
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+    private final Paint mGrayPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final ColorExtractor mColorExtractor = new ColorExtractor();
+    private Bitmap mDecodeBitmap;
+
+    public BackgroundLoader(Callback callback, RenderAssetCache assetCache) {
+        mCallback = callback;
+        mAssetCache = assetCache;
+        ColorMatrix colorMatrix = new ColorMatrix();
+        colorMatrix.setSaturation(0);
+        mGrayPaint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
+    }
+
+    /** Starts the loader thread. */
+    public void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message message) {
+                if (message.what == MSG_LOAD) {
+                    load((Request) message.obj);
+                }
+            }
+        };
+    }
+
+    /** Stops the loader thread and drops pending results. */
+    public void quit() {
+        mGeneration.incrementAndGet();
+        if (mThread != null) {
+            mThread.quit();
+            mThread = null;
+            mHandler = null;
+        }
+    }
+
+    /**
+     * Loads the backgrounds for {@code resId} at {@code width} pixels, replacing any request that
+     * hasn't finished yet.
+     *
+     * @param config the config of the photo, {@code RGB_565} halves it
+     * @param grayscale whether to build the grayscale ambient variant
+     * @param cacheKey the {@link RenderAssetCache#getKey key} of the assets
+     */
+    public void request(Resources resources, int resId, int width, Bitmap.Config config,
+            boolean grayscale, int cacheKey) {
+        if (mHandler == null || width <= 0) {
+            return;
+        }
+        Request request = new Request();
+        request.resources = resources;
+        request.resId = resId;
+        request.width = width;
+        request.config = config;
+        request.grayscale = grayscale;
+        request.cacheKey = cacheKey;
+        request.generation = mGeneration.incrementAndGet();
+        mHandler.removeMessages(MSG_LOAD);
+        mHandler.obtainMessage(MSG_LOAD, request).sendToTarget();
+    }
+
+    /** Runs on the loader thread. */
+    private void load(final Request request) {
+        long start = System.currentTimeMillis();
+        RenderAssetCache.Assets assets = mAssetCache.load(request.cacheKey);
+        boolean cached = assets != null;
+        if (!cached) {
+            assets = derive(request);
+        }
+        if (assets == null || request.generation != mGeneration.get()) {
+            return;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, (cached ? "Read " : "Derived ") + assets.interactive.getWidth() + "x"
+                    + assets.interactive.getHeight() + " background in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        final RenderAssetCache.Assets result = assets;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (request.generation == mGeneration.get()) {
+                    mCallback.onBackgroundLoaded(result);
+                }
+            }
+        });
+        if (!cached) {
+            // After delivering, so the frame doesn't wait for the disk.
+            mAssetCache.write(request.cacheKey, assets);
+        }
+    }
+
+    /** Decodes the photo of {@code request}, scales it and picks the hand colors from it. */
+    private RenderAssetCache.Assets derive(Request request) {
+        Bitmap decoded = decode(request);
+        if (decoded == null || request.generation != mGeneration.get()) {
+            return null;
+        }
+        float scale = (float) request.width / decoded.getWidth();
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, request.width,
+                Math.round(decoded.getHeight() * scale), true);
+        if (scaled == decoded) {
+            // Already at the surface size, hand the decode buffer over instead of reusing it.
+            mDecodeBitmap = null;
+        }
+
+        Bitmap gray = null;
+        if (request.grayscale) {
+            gray = Bitmap.createBitmap(scaled.getWidth(), scaled.getHeight(),
+                    Bitmap.Config.RGB_565);
+            new Canvas(gray).drawBitmap(scaled, 0, 0, mGrayPaint);
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Decoded background from " + mOptions.outWidth + "x" + mOptions.outHeight
+                    + " / " + mOptions.inSampleSize);
+        }
+
+        mColorExtractor.extract(scaled);
+        return new RenderAssetCache.Assets(scaled, gray,
+                mColorExtractor.getVibrantColor(Color.WHITE),
+                mColorExtractor.getLightVibrantColor(Color.WHITE),
+                mColorExtractor.getDarkMutedColor(Color.BLACK));
+    }
+
+    /**
+     * Decodes the resource of {@code request} subsampled to at least its width, into the decode
+     * buffer when it fits.
+     */
+    private Bitmap decode(Request request) {
+        final BitmapFactory.Options options = mOptions;
+        options.inJustDecodeBounds = true;
+        options.inSampleSize = 1;
+        options.inBitmap = null;
+        BitmapFactory.decodeResource(request.resources, request.resId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(TAG, "Unable to decode background " + request.resId);
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= request.width) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = request.config;
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        int bytesPerPixel = request.config == Bitmap.Config.RGB_565 ? 2 : 4;
+        if (mDecodeBitmap != null
+                && mDecodeBitmap.getAllocationByteCount() >= width * height * bytesPerPixel) {
+            options.inBitmap = mDecodeBitmap;
+        }
+
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeResource(request.resources, request.resId, options);
+        } catch (IllegalArgumentException e) {
+            // The decode buffer can't be reused for this image after all.
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeResource(request.resources, request.resId, options);
+        }
+        options.inBitmap = null;
+        mDecodeBitmap = decoded;
+        return decoded;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Accounts for the bitmaps held by the engine's caches and frees them under memory pressure.
+ * Every cache rebuilds itself on its next use, so freeing one only costs the time to draw it
+ * again.
+ * <p>
+ * Caches that only speed up frames which may never be drawn, such as the next ambient frame, go
+ * first. Everything else is only freed when memory is critically low. Once memory ran low, or the
+ * caches outgrow the budget, opaque caches should be allocated as {@code RGB_565}, which halves
+ * them. The budget stays tight for the rest of the engine's life, since memory pressure on a
+ * watch tends to come back.
+ */
+public final class BitmapBudget {
+    private static final String TAG = "BitmapBudget";
+
+    /** Freed as soon as memory runs low. */
+    public static final int TIER_OPTIONAL = 0;
+    /** Needed for the next frame, only freed when memory is critically low. */
+    public static final int TIER_FRAME = 1;
+
+    /**
+     * Callback interface to account for and free the bitmaps of a cache.
+     */
+    public interface Cache {
+        /** Returns the bytes allocated for the bitmaps of the cache. */
+        long getByteCount();
+
+        /** Frees the bitmaps. The cache must rebuild them on its next use. */
+        void release();
+    }
+
+    private static final class Entry {
+        final String name;
+        final int tier;
+        final Cache cache;
+
+        Entry(String name, int tier, Cache cache) {
+            this.name = name;
+            this.tier = tier;
+            this.cache = cache;
+        }
+    }
+
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private final long mBudgetBytes;
+    private boolean mTight;
+
+    /** @param budgetBytes the bytes the caches should stay under */
+    public BitmapBudget(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Adds {@code cache} to the accounting.
+     *
+     * @param name the name of the cache in the debug stats
+     * @param tier one of the {@code TIER_} constants
+     */
+    public void register(String name, int tier, Cache cache) {
+        mEntries.add(new Entry(name, tier, cache));
+    }
+
+    /** Returns the bytes allocated by all caches. */
+    public long getByteCount() {
+        long bytes = 0;
+        for (int i = 0; i < mEntries.size(); i++) {
+            bytes += mEntries.get(i).cache.getByteCount();
+        }
+        return bytes;
+    }
+
+    /** Returns whether memory ran low or the caches outgrew the budget. */
+    public boolean isTight() {
+        return mTight || getByteCount() > mBudgetBytes;
+    }
+
+    /** Returns the config for caches without transparent pixels. */
+    public Bitmap.Config getOpaqueConfig() {
+        return isTight() ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Frees caches for a {@link ComponentCallbacks2} trim level. Must not run while another
+     * thread draws with the caches.
+     *
+     * @return whether {@link #getOpaqueConfig()} changed
+     */
+    public boolean onTrimMemory(int level) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            // Nothing to give back yet, the watch face has no UI to hide.
+            return false;
+        }
+        Bitmap.Config config = getOpaqueConfig();
+        mTight = true;
+        release(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                ? TIER_FRAME : TIER_OPTIONAL, "trim level " + level);
+        return config != getOpaqueConfig();
+    }
+
+    /**
+     * Frees all caches, the system is about to kill background processes. Must not run while
+     * another thread draws with the caches.
+     *
+     * @return whether {@link #getOpaqueConfig()} changed
+     */
+    public boolean onLowMemory() {
+        Bitmap.Config config = getOpaqueConfig();
+        mTight = true;
+        release(TIER_FRAME, "low memory");
+        return config != getOpaqueConfig();
+    }
+
+    /** Frees the caches up to and including {@code maxTier}. */
+    private void release(int maxTier, String reason) {
+        long bytes = getByteCount();
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            if (entry.tier <= maxTier) {
+                entry.cache.release();
+            }
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Freed " + (bytes - getByteCount()) / 1024 + " KB on " + reason);
+        }
+    }
+
+    /** Logs the bytes of every cache. */
+    public void logStats() {
+        StringBuilder builder = new StringBuilder("Bitmap caches: ")
+                .append(getByteCount() / 1024).append(" KB of ").append(mBudgetBytes / 1024)
+                .append(" KB");
+        if (mTight) {
+            builder.append(" (tight)");
+        }
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            builder.append(", ").append(entry.name).append(" = ")
+                    .append(entry.cache.getByteCount() / 1024).append(" KB");
+        }
+        Log.d(TAG, builder.toString());
+    }
+}
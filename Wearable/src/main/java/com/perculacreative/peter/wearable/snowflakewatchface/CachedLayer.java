@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * An offscreen bitmap holding content that rarely changes, such as the background and tick marks.
+ * The layer is recorded once with {@link #beginRecording()} / {@link #endRecording()} and then
+ * drawn with a single blit until it is {@link #invalidate() invalidated}.
+ * <p>
+ * The bitmap is only reallocated when the size or config changes, so re-recording an invalidated
+ * layer does not allocate.
+ */
+public final class CachedLayer implements BitmapBudget.Cache {
+
+    private final Canvas mCanvas = new Canvas();
+
+    private Bitmap mBitmap;
+    private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+    private int mWidth;
+    private int mHeight;
+    private boolean mValid;
+
+    /** Sets the size of the layer in pixels. Changing it invalidates the layer. */
+    public void setSize(int width, int height) {
+        if (width != mWidth || height != mHeight) {
+            mWidth = width;
+            mHeight = height;
+            mValid = false;
+        }
+    }
+
+    /** Sets the bitmap config used for the layer. Changing it invalidates the layer. */
+    public void setConfig(Bitmap.Config config) {
+        if (config != mConfig) {
+            mConfig = config;
+            mValid = false;
+        }
+    }
+
+    public boolean isValid() {
+        return mValid && mBitmap != null;
+    }
+
+    /** Marks the content as stale so it is recorded again before the next use. */
+    public void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Returns a canvas drawing into the cleared layer bitmap, or {@code null} if the layer has no
+     * size yet. Call {@link #endRecording()} once the content has been drawn.
+     */
+    public Canvas beginRecording() {
+        if (mWidth <= 0 || mHeight <= 0) {
+            return null;
+        }
+        if (mBitmap == null || mBitmap.getWidth() != mWidth || mBitmap.getHeight() != mHeight
+                || mBitmap.getConfig() != mConfig) {
+            release();
+            mBitmap = Bitmap.createBitmap(mWidth, mHeight, mConfig);
+            mCanvas.setBitmap(mBitmap);
+        } else {
+            mBitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return mCanvas;
+    }
+
+    /** Marks the content recorded since {@link #beginRecording()} as valid. */
+    public void endRecording() {
+        mValid = true;
+    }
+
+    /** Blits the layer onto {@code canvas} at the origin. */
+    public void draw(Canvas canvas, Paint paint) {
+        if (mBitmap != null) {
+            canvas.drawBitmap(mBitmap, 0, 0, paint);
+        }
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /** Returns the bytes allocated for the layer bitmap. */
+    @Override // BitmapBudget.Cache
+    public long getByteCount() {
+        return mBitmap != null ? mBitmap.getAllocationByteCount() : 0;
+    }
+
+    /** Frees the layer bitmap. The layer is recorded again on next use. */
+    @Override // BitmapBudget.Cache
+    public void release() {
+        mValid = false;
+        if (mBitmap != null) {
+            mCanvas.setBitmap(null);
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+    }
+}
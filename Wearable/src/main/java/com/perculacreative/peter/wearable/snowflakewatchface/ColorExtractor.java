@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.Arrays;
+
+/**
+ * Picks the vibrant, light vibrant and dark muted colors of a bitmap, like the support library's
+ * {@code Palette} but in bounded time and without allocating after the first bitmap of a size.
+ * <p>
+ * The bitmap is sampled on a fixed grid and the samples are counted in a histogram of colors
+ * quantized to 4 bits per channel. Each target then takes the bucket that scores best on
+ * saturation, lightness and population, with the weights and ranges of the {@code Palette}
+ * targets. A bucket stands for the average color of its samples and serves one target at most.
+ * The result only depends on the pixels, so the same bitmap always gets the same colors.
+ */
+public final class ColorExtractor {
+    /** Samples per side of the grid, which bounds the work regardless of the bitmap size. */
+    private static final int GRID_SIZE = 64;
+    private static final int QUANTIZE_BITS = 4;
+    private static final int BUCKET_COUNT = 1 << (3 * QUANTIZE_BITS);
+
+    /** Marks a target without a matching color. Extracted colors are opaque, so never 0. */
+    private static final int NO_COLOR = 0;
+
+    private static final float WEIGHT_SATURATION = 0.24f;
+    private static final float WEIGHT_LIGHTNESS = 0.52f;
+    private static final float WEIGHT_POPULATION = 0.24f;
+
+    /** Samples this dark or light are ignored, they say little about the photo's colors. */
+    private static final float MIN_LIGHTNESS = 0.05f;
+    private static final float MAX_LIGHTNESS = 0.95f;
+
+    /** Lightness and saturation of the targets as minimum, target and maximum. */
+    private static final float[] VIBRANT_LIGHTNESS = {0.3f, 0.5f, 0.7f};
+    private static final float[] LIGHT_LIGHTNESS = {0.55f, 0.74f, 1};
+    private static final float[] DARK_LIGHTNESS = {0, 0.26f, 0.45f};
+    private static final float[] VIBRANT_SATURATION = {0.35f, 1, 1};
+    private static final float[] MUTED_SATURATION = {0, 0.3f, 0.4f};
+
+    private final int[] mCounts = new int[BUCKET_COUNT];
+    private final int[] mRedSums = new int[BUCKET_COUNT];
+    private final int[] mGreenSums = new int[BUCKET_COUNT];
+    private final int[] mBlueSums = new int[BUCKET_COUNT];
+    /** Whether the bucket was taken by a target already. */
+    private final boolean[] mUsed = new boolean[BUCKET_COUNT];
+    private int[] mRow = new int[0];
+    private int mMaxCount;
+
+    private int mVibrantColor = NO_COLOR;
+    private int mLightVibrantColor = NO_COLOR;
+    private int mDarkMutedColor = NO_COLOR;
+
+    /** Picks the colors of {@code bitmap}, replacing those of the previous one. */
+    public void extract(Bitmap bitmap) {
+        Arrays.fill(mCounts, 0);
+        Arrays.fill(mRedSums, 0);
+        Arrays.fill(mGreenSums, 0);
+        Arrays.fill(mBlueSums, 0);
+        Arrays.fill(mUsed, false);
+        mMaxCount = 0;
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (mRow.length < width) {
+            mRow = new int[width];
+        }
+        final int shift = 8 - QUANTIZE_BITS;
+        for (int gy = 0; gy < GRID_SIZE; gy++) {
+            // The centers of the grid cells.
+            int y = (2 * gy + 1) * height / (2 * GRID_SIZE);
+            bitmap.getPixels(mRow, 0, width, 0, y, width, 1);
+            for (int gx = 0; gx < GRID_SIZE; gx++) {
+                int pixel = mRow[(2 * gx + 1) * width / (2 * GRID_SIZE)];
+                int red = Color.red(pixel);
+                int green = Color.green(pixel);
+                int blue = Color.blue(pixel);
+                int bucket = ((red >> shift) << (2 * QUANTIZE_BITS))
+                        | ((green >> shift) << QUANTIZE_BITS) | (blue >> shift);
+                mRedSums[bucket] += red;
+                mGreenSums[bucket] += green;
+                mBlueSums[bucket] += blue;
+                mMaxCount = Math.max(mMaxCount, ++mCounts[bucket]);
+            }
+        }
+
+        mVibrantColor = findColor(VIBRANT_LIGHTNESS, VIBRANT_SATURATION);
+        mLightVibrantColor = findColor(LIGHT_LIGHTNESS, VIBRANT_SATURATION);
+        mDarkMutedColor = findColor(DARK_LIGHTNESS, MUTED_SATURATION);
+    }
+
+    /**
+     * Returns the average color of the unused bucket that scores best for the target, and marks
+     * it as used, or {@link #NO_COLOR} if none is in the target's ranges.
+     */
+    private int findColor(float[] lightness, float[] saturation) {
+        int best = -1;
+        float bestScore = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            int count = mCounts[bucket];
+            if (count == 0 || mUsed[bucket]) {
+                continue;
+            }
+            float red = mRedSums[bucket] / (255f * count);
+            float green = mGreenSums[bucket] / (255f * count);
+            float blue = mBlueSums[bucket] / (255f * count);
+            float max = Math.max(red, Math.max(green, blue));
+            float min = Math.min(red, Math.min(green, blue));
+            float l = (max + min) / 2;
+            float s = max == min ? 0 : (max - min) / (1 - Math.abs(2 * l - 1));
+            if (l < MIN_LIGHTNESS || l > MAX_LIGHTNESS || l < lightness[0] || l > lightness[2]
+                    || s < saturation[0] || s > saturation[2]) {
+                continue;
+            }
+            float score = WEIGHT_SATURATION * (1 - Math.abs(s - saturation[1]))
+                    + WEIGHT_LIGHTNESS * (1 - Math.abs(l - lightness[1]))
+                    + WEIGHT_POPULATION * count / mMaxCount;
+            if (best < 0 || score > bestScore) {
+                best = bucket;
+                bestScore = score;
+            }
+        }
+        if (best < 0) {
+            return NO_COLOR;
+        }
+        mUsed[best] = true;
+        int count = mCounts[best];
+        return Color.rgb(mRedSums[best] / count, mGreenSums[best] / count,
+                mBlueSums[best] / count);
+    }
+
+    public int getVibrantColor(int defaultColor) {
+        return mVibrantColor != NO_COLOR ? mVibrantColor : defaultColor;
+    }
+
+    public int getLightVibrantColor(int defaultColor) {
+        return mLightVibrantColor != NO_COLOR ? mLightVibrantColor : defaultColor;
+    }
+
+    public int getDarkMutedColor(int defaultColor) {
+        return mDarkMutedColor != NO_COLOR ? mDarkMutedColor : defaultColor;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Resolves the geometry of upcoming frames on a background thread, so that drawing on the main
+ * thread mostly issues canvas calls.
+ * <p>
+ * A frame holds everything that only changes with the minute or count: the flake line endpoints,
+ * the hour and minute hand angles and the center text. There are two preallocated frames. The main
+ * thread holds the one it draws from, and the preparer thread fills the other and publishes it
+ * with an atomic swap. No locks are taken and no frames are allocated after construction.
+ */
+public final class FramePreparer {
+    private static final String TAG = "FramePreparer";
+
+    private static final int MSG_PREPARE = 0;
+
+    /**
+     * The resolved geometry and text of one minute and count.
+     */
+    public static final class Frame {
+        /** The minute of the day and count the frame was prepared for, -1 if none. */
+        int minuteOfDay = -1;
+        int count;
+        int stage;
+        /** The surface center and hour hand radius the flakes were resolved with. */
+        float centerX;
+        float centerY;
+        float radius;
+
+        float hoursRotation;
+        float minutesRotation;
+        final SnowflakeGeometry fixedFlakes = new SnowflakeGeometry();
+        final SnowflakeGeometry morphFlakes = new SnowflakeGeometry();
+        final char[] centerText = new char[16];
+        int centerLength;
+
+        /** How long the preparer thread took to fill the frame. */
+        long prepareNanos;
+
+        boolean matches(int minuteOfDay, int count, float centerX, float centerY, float radius) {
+            return this.minuteOfDay == minuteOfDay && this.count == count
+                    && this.centerX == centerX && this.centerY == centerY
+                    && this.radius == radius;
+        }
+    }
+
+    /**
+     * Callback interface to fill the frames of a {@link FramePreparer}.
+     */
+    public interface Callback {
+        /**
+         * Fills {@code frame} for the time of {@code calendar}. Called on the preparer thread, so
+         * it may only read state that the main thread sets before requesting the frame.
+         */
+        void onPrepareFrame(Frame frame, Calendar calendar);
+    }
+
+    private final Callback mCallback;
+
+    /** Used on the preparer thread only. */
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    /** The frame filled last and not yet taken by the main thread. */
+    private final AtomicReference<Frame> mPublished = new AtomicReference<>();
+    /** The frame free for the preparer thread to fill. */
+    private final AtomicReference<Frame> mSpare = new AtomicReference<>(new Frame());
+    /** The frame the main thread draws from. */
+    private Frame mCurrent = new Frame();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private long mRequestedTimeMs = -1;
+
+    private int mHitCount;
+    private int mMissCount;
+    private long mPrepareNanos;
+
+    public FramePreparer(Callback callback) {
+        mCallback = callback;
+    }
+
+    /** Starts the preparer thread. */
+    public void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message message) {
+                if (message.what == MSG_PREPARE) {
+                    prepare(((long) message.arg1 << 32) | (message.arg2 & 0xffffffffL));
+                }
+            }
+        };
+    }
+
+    /** Stops the preparer thread. Frames already prepared stay available. */
+    public void quit() {
+        if (mThread != null) {
+            mThread.quit();
+            mThread = null;
+            mHandler = null;
+        }
+        mRequestedTimeMs = -1;
+    }
+
+    /**
+     * Prepares the frame for {@code timeMs} on the preparer thread, replacing any request that
+     * hasn't started yet. Does nothing if that frame was requested last.
+     */
+    public void requestPrepare(long timeMs) {
+        if (mHandler == null || timeMs == mRequestedTimeMs) {
+            return;
+        }
+        mRequestedTimeMs = timeMs;
+        mHandler.removeMessages(MSG_PREPARE);
+        mHandler.obtainMessage(MSG_PREPARE, (int) (timeMs >>> 32), (int) timeMs).sendToTarget();
+    }
+
+    /** Drops the prepared frames, e.g. after the surface or the morph source changed. */
+    public void invalidate() {
+        mCurrent.minuteOfDay = -1;
+        mRequestedTimeMs = -1;
+    }
+
+    /**
+     * Returns the prepared frame for the minute of the day and count, or {@code null} if it
+     * wasn't prepared in time. The frame stays valid until the next call.
+     */
+    public Frame acquire(int minuteOfDay, int count, float centerX, float centerY, float radius) {
+        Frame published = mPublished.get();
+        if (published != null
+                && published.matches(minuteOfDay, count, centerX, centerY, radius)
+                && mPublished.compareAndSet(published, null)) {
+            mSpare.set(mCurrent);
+            mCurrent = published;
+            mPrepareNanos += published.prepareNanos;
+        }
+        if (mCurrent.matches(minuteOfDay, count, centerX, centerY, radius)) {
+            mHitCount++;
+            return mCurrent;
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /** Number of frames drawn from a prepared frame. */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Number of frames that had to resolve their geometry on the main thread. */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /** Time the preparer thread spent on the frames taken by the main thread. */
+    public long getPrepareNanos() {
+        return mPrepareNanos;
+    }
+
+    public void resetStats() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mPrepareNanos = 0;
+    }
+
+    /** Runs on the preparer thread. */
+    private void prepare(long timeMs) {
+        // The main thread holds one frame, the other is either spare or published but not taken.
+        Frame frame = mSpare.getAndSet(null);
+        if (frame == null) {
+            frame = mPublished.getAndSet(null);
+            if (frame == null) {
+                return;
+            }
+        }
+        long startNanos = System.nanoTime();
+        mCalendar.setTimeZone(TimeZone.getDefault());
+        mCalendar.setTimeInMillis(timeMs);
+        mCallback.onPrepareFrame(frame, mCalendar);
+        frame.prepareNanos = System.nanoTime() - startNanos;
+        mPublished.set(frame);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.content.Intent;
+import android.os.BatteryManager;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the tick period of the interactive mode timer from everything that should slow it down:
+ * mute mode, battery level and power save mode, how long ago the screen woke up and how long
+ * frames take to draw.
+ * <p>
+ * Every period divides a minute, so ticks stay aligned to whole seconds and minutes. Ticks are
+ * scheduled at absolute {@link android.os.SystemClock#uptimeMillis()} times computed from the
+ * wall clock, so the handler latency of one tick doesn't push back the next.
+ */
+public final class FrameRateGovernor {
+    private static final String TAG = "FrameRateGovernor";
+
+    /** The tick periods to choose from, fastest first. Each of them divides a minute. */
+    private static final long[] PERIODS_MS = {
+            TimeUnit.SECONDS.toMillis(1),
+            TimeUnit.SECONDS.toMillis(2),
+            TimeUnit.SECONDS.toMillis(5),
+            TimeUnit.SECONDS.toMillis(15),
+            TimeUnit.MINUTES.toMillis(1),
+    };
+    private static final int PERIOD_NORMAL = 0;
+    private static final int PERIOD_IDLE = 1;
+    private static final int PERIOD_LOW_BATTERY = 2;
+    /** Like ambient mode, for mute and power save mode. */
+    private static final int PERIOD_MINUTE = PERIODS_MS.length - 1;
+
+    /** How long after the screen woke up the face is considered idle. */
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /** Battery percentage at or below which the face slows down, unless it is charging. */
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    /** Frames may take up to this fraction of the period before the period is lengthened. */
+    private static final int FRAME_COST_BUDGET_DIVISOR = 4;
+
+    private boolean mMuted;
+    private boolean mPowerSaveMode;
+    private boolean mLowBattery;
+    private long mWakeUptimeMs;
+    /** Exponential moving average of the frame cost in nanoseconds. */
+    private long mAverageFrameNanos;
+    private long mLastPeriodMs;
+
+    public void setMuted(boolean muted) {
+        mMuted = muted;
+    }
+
+    public void setPowerSaveMode(boolean powerSaveMode) {
+        mPowerSaveMode = powerSaveMode;
+    }
+
+    /** Updates the battery state from an {@link Intent#ACTION_BATTERY_CHANGED} broadcast. */
+    public void setBatteryState(Intent batteryChanged) {
+        int level = batteryChanged.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = batteryChanged.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        boolean plugged = batteryChanged.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        mLowBattery = !plugged && level >= 0 && scale > 0
+                && level * 100 <= LOW_BATTERY_PERCENT * scale;
+    }
+
+    /** Records that the screen woke up, which resets the idle timeout. */
+    public void onWake(long uptimeMs) {
+        mWakeUptimeMs = uptimeMs;
+    }
+
+    /** Records how long a frame took to draw. */
+    public void onFrameDrawn(long frameNanos) {
+        if (mAverageFrameNanos == 0) {
+            mAverageFrameNanos = frameNanos;
+        } else {
+            mAverageFrameNanos += (frameNanos - mAverageFrameNanos) / 8;
+        }
+    }
+
+    /** Returns the tick period in milliseconds at {@code uptimeMs}. */
+    public long getPeriodMs(long uptimeMs) {
+        int period = PERIOD_NORMAL;
+        if (uptimeMs - mWakeUptimeMs >= IDLE_TIMEOUT_MS) {
+            period = Math.max(period, PERIOD_IDLE);
+        }
+        if (mLowBattery) {
+            period = Math.max(period, PERIOD_LOW_BATTERY);
+        }
+        if (mMuted || mPowerSaveMode) {
+            period = PERIOD_MINUTE;
+        }
+        long budgetNanos = TimeUnit.MILLISECONDS.toNanos(PERIODS_MS[period])
+                / FRAME_COST_BUDGET_DIVISOR;
+        while (period < PERIOD_MINUTE && mAverageFrameNanos > budgetNanos) {
+            period++;
+            budgetNanos = TimeUnit.MILLISECONDS.toNanos(PERIODS_MS[period])
+                    / FRAME_COST_BUDGET_DIVISOR;
+        }
+
+        long periodMs = PERIODS_MS[period];
+        if (periodMs != mLastPeriodMs) {
+            mLastPeriodMs = periodMs;
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Tick period " + periodMs + " ms: muted = " + mMuted
+                        + ", power save = " + mPowerSaveMode + ", low battery = " + mLowBattery
+                        + ", frame = " + TimeUnit.NANOSECONDS.toMicros(mAverageFrameNanos)
+                        + " us");
+            }
+        }
+        return periodMs;
+    }
+
+    /**
+     * Returns whether a {@link SweepPacer} may run at {@code uptimeMs}, only while nothing slows
+     * the ticks down.
+     */
+    public boolean allowsSweep(long uptimeMs) {
+        return getPeriodMs(uptimeMs) == PERIODS_MS[PERIOD_NORMAL];
+    }
+
+    /**
+     * Returns the {@link android.os.SystemClock#uptimeMillis()} time of the next tick, the next
+     * wall clock multiple of the period.
+     *
+     * @param timeMs the current wall clock time
+     * @param uptimeMs the current uptime
+     */
+    public long getNextTickUptime(long timeMs, long uptimeMs) {
+        long periodMs = getPeriodMs(uptimeMs);
+        return uptimeMs + periodMs - (timeMs % periodMs);
+    }
+}
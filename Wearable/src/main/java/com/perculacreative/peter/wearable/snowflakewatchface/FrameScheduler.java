@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.view.Choreographer;
+
+/**
+ * Coalesces the redraw requests of the watch face into at most one frame per vsync.
+ * <p>
+ * Each request names why the face needs to be redrawn, so the {@link Callback} can refresh only
+ * the layers affected. Ticks wait for the next vsync, since the callback draws them right away
+ * into the dirty rect of the second hand. Any other request is passed on at once together with a
+ * pending tick, because the callback then invalidates the face, which waits for the vsync itself
+ * and coalesces with further requests. A config change that lands together with a tick thus
+ * costs a single frame, and isn't delayed by one.
+ */
+public final class FrameScheduler implements Choreographer.FrameCallback {
+
+    /** The interactive timer ticked, only the second hand moved. */
+    public static final int REASON_TICK = 1;
+    /** The minute changed, from {@code onTimeTick}. */
+    public static final int REASON_TIME_TICK = 1 << 1;
+    /** The time zone, locale or time settings changed. */
+    public static final int REASON_TIME_SETTINGS = 1 << 2;
+    /** The config {@code DataMap} changed the colors or settings. */
+    public static final int REASON_CONFIG = 1 << 3;
+    /** The face entered or left ambient mode. */
+    public static final int REASON_AMBIENT = 1 << 4;
+    /** The interruption filter, and with it mute mode, changed. */
+    public static final int REASON_INTERRUPTION = 1 << 5;
+    /** The low-bit ambient or burn-in protection properties changed. */
+    public static final int REASON_PROPERTIES = 1 << 6;
+    /** The step count changed. */
+    public static final int REASON_STEPS = 1 << 7;
+    /** The render quality level changed. */
+    public static final int REASON_QUALITY = 1 << 8;
+    /** A new background photo and the hand colors picked from it were loaded. */
+    public static final int REASON_BACKGROUND = 1 << 9;
+    /** The startup snapshot was loaded, or replaced by the live static layers. */
+    public static final int REASON_STARTUP = 1 << 10;
+
+    /** Reasons that change what is below the second hand beyond the time and count. */
+    public static final int REASONS_BASE_LAYER = REASON_CONFIG | REASON_AMBIENT | REASON_PROPERTIES
+            | REASON_QUALITY | REASON_BACKGROUND | REASON_STARTUP;
+
+    /**
+     * Callback interface to draw the frames requested from a {@link FrameScheduler}.
+     */
+    public interface Callback {
+        /**
+         * Draws a frame, or invalidates the face to draw one on the next vsync.
+         *
+         * @param reasons the {@code REASON_} flags of every request since the last frame, just
+         *     {@link #REASON_TICK} when called on a vsync
+         */
+        void onScheduledFrame(int reasons);
+    }
+
+    private final Callback mCallback;
+
+    private int mPendingReasons;
+    private boolean mPosted;
+
+    private int mRequestCount;
+    private int mFrameCount;
+
+    public FrameScheduler(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Requests a frame for {@code reason}, one of the {@code REASON_} flags. Ticks wait for the
+     * next vsync, any other reason is passed on right away together with a pending tick.
+     */
+    public void requestFrame(int reason) {
+        mPendingReasons |= reason;
+        mRequestCount++;
+        if (reason != REASON_TICK) {
+            int reasons = mPendingReasons;
+            cancel();
+            mFrameCount++;
+            mCallback.onScheduledFrame(reasons);
+        } else if (!mPosted) {
+            mPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /** Returns the reasons of the requests waiting for the next vsync, a tick at most. */
+    public int getPendingReasons() {
+        return mPendingReasons;
+    }
+
+    /** Drops the pending requests. */
+    public void cancel() {
+        if (mPosted) {
+            mPosted = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+        mPendingReasons = 0;
+    }
+
+    /** Returns the number of requests since the last {@link #resetStats()}. */
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Returns the number of times the requests since the last {@link #resetStats()} were passed
+     * on. The invalidations among them may have coalesced further.
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public void resetStats() {
+        mRequestCount = 0;
+        mFrameCount = 0;
+    }
+
+    @Override // Choreographer.FrameCallback
+    public void doFrame(long frameTimeNanos) {
+        int reasons = mPendingReasons;
+        mPendingReasons = 0;
+        mPosted = false;
+        if (reasons != 0) {
+            mFrameCount++;
+            mCallback.onScheduledFrame(reasons);
+        }
+    }
+}
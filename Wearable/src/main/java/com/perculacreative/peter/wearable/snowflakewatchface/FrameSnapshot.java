@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The static layers of the last interactive and ambient frames, kept as PNG files in the app's
+ * cache directory. After a restart they stand in for the static layers until the config and
+ * background are in, so the face shows the user's colors from the first frame instead of the
+ * defaults.
+ * <p>
+ * Snapshots are saved and loaded on a background thread. Loaded snapshots are handed over with
+ * the engine's render lock held, and must only be drawn with it held.
+ */
+public final class FrameSnapshot implements BitmapBudget.Cache {
+    private static final String TAG = "FrameSnapshot";
+
+    private static final int MSG_LOAD = 0;
+    private static final int MSG_SAVE = 1;
+
+    private static final int INTERACTIVE = 0;
+    private static final int AMBIENT = 1;
+    private static final String[] SUFFIXES = {"_interactive.png", "_ambient.png"};
+
+    /**
+     * Callback interface to learn when the snapshots of a {@link FrameSnapshot} were loaded.
+     */
+    public interface OnLoadedListener {
+        /** Called on the main thread once the snapshots of the previous process were loaded. */
+        void onSnapshotLoaded();
+    }
+
+    private final Context mContext;
+    private final String mName;
+    private final Object mLock;
+    private final OnLoadedListener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The loaded snapshots, guarded by the lock. */
+    private final Bitmap[] mBitmaps = new Bitmap[2];
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    /**
+     * @param name the prefix of the files, unique per watch face
+     * @param lock the render lock held by every draw
+     */
+    public FrameSnapshot(Context context, String name, Object lock, OnLoadedListener listener) {
+        mContext = context;
+        mName = name;
+        mLock = lock;
+        mListener = listener;
+    }
+
+    /** Starts the snapshot thread and loads the snapshots of the previous process. */
+    public void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message message) {
+                if (message.what == MSG_LOAD) {
+                    load();
+                } else if (message.what == MSG_SAVE) {
+                    save(message.arg1, (Bitmap) message.obj);
+                }
+            }
+        };
+        mHandler.sendEmptyMessage(MSG_LOAD);
+    }
+
+    /** Stops the snapshot thread once the pending saves are written, and frees the snapshots. */
+    public void quit() {
+        if (mThread != null) {
+            mThread.quitSafely();
+            mThread = null;
+            mHandler = null;
+        }
+        release();
+    }
+
+    /**
+     * Draws the snapshot of the mode if there is one for a surface of {@code width} x
+     * {@code height} pixels. Call it with the render lock held.
+     *
+     * @return whether a snapshot was drawn
+     */
+    public boolean draw(Canvas canvas, boolean ambient, int width, int height) {
+        Bitmap bitmap = mBitmaps[ambient ? AMBIENT : INTERACTIVE];
+        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            return false;
+        }
+        canvas.drawBitmap(bitmap, 0, 0, null);
+        return true;
+    }
+
+    /**
+     * Saves a copy of the static layer {@code bitmap} of the mode as the snapshot for the next
+     * process. Only the copy is made on the calling thread.
+     */
+    public void save(Bitmap bitmap, boolean ambient) {
+        Handler handler = mHandler;
+        if (handler == null || bitmap == null) {
+            return;
+        }
+        handler.obtainMessage(MSG_SAVE, ambient ? AMBIENT : INTERACTIVE, 0,
+                bitmap.copy(bitmap.getConfig(), false)).sendToTarget();
+    }
+
+    @Override // BitmapBudget.Cache
+    public long getByteCount() {
+        synchronized (mLock) {
+            long bytes = 0;
+            for (Bitmap bitmap : mBitmaps) {
+                if (bitmap != null) {
+                    bytes += bitmap.getAllocationByteCount();
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /** Frees the loaded snapshots, once the live face has replaced them. */
+    @Override // BitmapBudget.Cache
+    public void release() {
+        synchronized (mLock) {
+            mBitmaps[INTERACTIVE] = null;
+            mBitmaps[AMBIENT] = null;
+        }
+    }
+
+    private File getFile(int mode) {
+        return new File(mContext.getCacheDir(), mName + SUFFIXES[mode]);
+    }
+
+    /** Runs on the snapshot thread. */
+    private void load() {
+        long start = System.currentTimeMillis();
+        Bitmap interactive = BitmapFactory.decodeFile(getFile(INTERACTIVE).getPath());
+        Bitmap ambient = BitmapFactory.decodeFile(getFile(AMBIENT).getPath());
+        if (interactive == null && ambient == null) {
+            return;
+        }
+        synchronized (mLock) {
+            mBitmaps[INTERACTIVE] = interactive;
+            mBitmaps[AMBIENT] = ambient;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Loaded snapshots in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onSnapshotLoaded();
+            }
+        });
+    }
+
+    /** Runs on the snapshot thread. Replaces the file atomically. */
+    private void save(int mode, Bitmap bitmap) {
+        File file = getFile(mode);
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save " + file, e);
+            temp.delete();
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
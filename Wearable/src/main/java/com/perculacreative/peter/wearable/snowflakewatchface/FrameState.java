@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+/**
+ * A compact fingerprint of everything a frame shows: the hand positions quantized to the rate
+ * they are drawn at, the count, the colors and the display mode flags. Two frames with matching
+ * states look the same, so an invalidation that would draw the state last drawn can be skipped.
+ * <p>
+ * Only primitives are kept, so capturing and comparing a state doesn't allocate.
+ */
+public final class FrameState {
+
+    public static final int FLAG_AMBIENT = 1;
+    public static final int FLAG_LOW_BIT_AMBIENT = 1 << 1;
+    public static final int FLAG_BURN_IN_PROTECTION = 1 << 2;
+    public static final int FLAG_MUTE = 1 << 3;
+    public static final int FLAG_24_HOUR = 1 << 4;
+
+    /** Second step of frames that don't show the second hand. */
+    public static final int NO_SECONDS = -1;
+
+    private boolean mValid;
+    private int mMinuteOfDay;
+    private int mSecondStep;
+    private int mCount;
+    private int mFlags;
+    private final int[] mColors;
+
+    /** @param colorCount the number of colors set with {@link #setColor} */
+    public FrameState(int colorCount) {
+        mColors = new int[colorCount];
+    }
+
+    public boolean isValid() {
+        return mValid;
+    }
+
+    /**
+     * Marks the state as unknown, so it matches no other state. Use it when something outside
+     * the state changed, like the surface or the text sizes.
+     */
+    public void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Sets the time shown by the frame.
+     *
+     * @param secondStep the second hand position in steps of the current frame rate, or
+     *     {@link #NO_SECONDS}
+     */
+    public void setTime(int minuteOfDay, int secondStep) {
+        mMinuteOfDay = minuteOfDay;
+        mSecondStep = secondStep;
+        mValid = true;
+    }
+
+    public void setCount(int count) {
+        mCount = count;
+    }
+
+    /** Sets the display mode, a combination of the {@code FLAG_} constants. */
+    public void setFlags(int flags) {
+        mFlags = flags;
+    }
+
+    public void setColor(int index, int color) {
+        mColors[index] = color;
+    }
+
+    /** Returns whether both states are valid and describe the same frame. */
+    public boolean matches(FrameState other) {
+        if (!mValid || !other.mValid || mMinuteOfDay != other.mMinuteOfDay
+                || mSecondStep != other.mSecondStep || mCount != other.mCount
+                || mFlags != other.mFlags) {
+            return false;
+        }
+        for (int i = 0; i < mColors.length; i++) {
+            if (mColors[i] != other.mColors[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+import java.util.ArrayList;
+
+/**
+ * The digits 0-9, the colon and a few whole strings such as AM/PM, pre-rendered with each of a set
+ * of text paints into one bitmap. Readouts are then composed from bitmap source rects instead of
+ * rasterizing anti-aliased, shadowed text on every frame.
+ * <p>
+ * Each paint gets a slot, added with {@link #addSlot}. A slot remembers the color, size, typeface
+ * and anti-aliasing of its paint when it was rendered, and the atlas is rendered again on the next
+ * draw once any of them changes. Keep one atlas per mode so that switching between interactive and
+ * ambient doesn't re-render it.
+ */
+public final class GlyphAtlas implements BitmapBudget.Cache {
+
+    private static final String GLYPHS = "0123456789:";
+    private static final int GLYPH_COUNT = GLYPHS.length();
+
+    /** Empty pixels between cells, so filtering never picks up a neighboring glyph. */
+    private static final int CELL_SPACING = 1;
+
+    private static final class Slot {
+        final Paint paint;
+        final int padding;
+        final String[] strings;
+
+        /** Glyphs followed by the strings. */
+        final int[] left;
+        final int[] width;
+        final float[] advance;
+        int top;
+        int height;
+        /** Distance from the top of a cell to the text baseline. */
+        int baseline;
+
+        int color;
+        float textSize;
+        Typeface typeface;
+        boolean antiAlias;
+
+        Slot(Paint paint, int padding, String[] strings) {
+            this.paint = paint;
+            this.padding = padding;
+            this.strings = strings;
+            int cells = GLYPH_COUNT + strings.length;
+            left = new int[cells];
+            width = new int[cells];
+            advance = new float[cells];
+        }
+
+        /**
+         * Whether the paint still renders like the glyphs in the atlas. The shadow layer can't be
+         * read back from a paint before API 29, so changing it requires
+         * {@link GlyphAtlas#invalidate()}.
+         */
+        boolean matchesPaint() {
+            return paint.getColor() == color && paint.getTextSize() == textSize
+                    && paint.getTypeface() == typeface && paint.isAntiAlias() == antiAlias;
+        }
+    }
+
+    private final ArrayList<Slot> mSlots = new ArrayList<>();
+    private final CachedLayer mLayer = new CachedLayer();
+    private final Paint mRecordPaint = new Paint();
+    private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+
+    /**
+     * Adds a slot rendering the glyphs and {@code strings} with {@code paint}.
+     *
+     * @param padding pixels around each glyph to leave room for strokes and shadows
+     * @return the slot index to pass to the drawing methods
+     */
+    public int addSlot(Paint paint, int padding, String... strings) {
+        mSlots.add(new Slot(paint, padding, strings));
+        mLayer.invalidate();
+        return mSlots.size() - 1;
+    }
+
+    /** Renders the atlas again on the next draw, e.g. after the text sizes changed. */
+    public void invalidate() {
+        mLayer.invalidate();
+    }
+
+    /**
+     * Returns the width of {@code text} in the paint of {@code slot}, the sum of the cached glyph
+     * advances.
+     */
+    public float measureText(int slot, char[] text, int start, int length) {
+        ensureValid();
+        final Slot s = mSlots.get(slot);
+        float width = 0;
+        for (int i = start, end = start + length; i < end; i++) {
+            int glyph = glyphIndex(text[i]);
+            width += glyph >= 0 ? s.advance[glyph] : s.paint.measureText(text, i, 1);
+        }
+        return width;
+    }
+
+    /**
+     * Draws {@code text} with the glyphs of {@code slot}, aligned to {@code x} like
+     * {@link Canvas#drawText} with {@code align}. Characters without a glyph fall back to the
+     * slot's paint.
+     *
+     * @return the width of the text
+     */
+    public float drawText(Canvas canvas, int slot, char[] text, int start, int length, float x,
+            float y, Paint.Align align) {
+        ensureValid();
+        final Slot s = mSlots.get(slot);
+        float width = measureText(slot, text, start, length);
+        if (align == Paint.Align.CENTER) {
+            x -= width / 2;
+        } else if (align == Paint.Align.RIGHT) {
+            x -= width;
+        }
+        for (int i = start, end = start + length; i < end; i++) {
+            int glyph = glyphIndex(text[i]);
+            if (glyph >= 0) {
+                drawCell(canvas, s, glyph, x, y);
+                x += s.advance[glyph];
+            } else {
+                Paint.Align paintAlign = s.paint.getTextAlign();
+                s.paint.setTextAlign(Paint.Align.LEFT);
+                canvas.drawText(text, i, 1, x, y, s.paint);
+                s.paint.setTextAlign(paintAlign);
+                x += s.paint.measureText(text, i, 1);
+            }
+        }
+        return width;
+    }
+
+    /**
+     * Draws the glyph for {@code c}, which must be a digit or a colon, with its left edge at
+     * {@code x}.
+     *
+     * @return the advance of the glyph
+     */
+    public float drawChar(Canvas canvas, int slot, char c, float x, float y) {
+        ensureValid();
+        final Slot s = mSlots.get(slot);
+        int glyph = glyphIndex(c);
+        if (glyph < 0) {
+            throw new IllegalArgumentException("No glyph for " + c);
+        }
+        drawCell(canvas, s, glyph, x, y);
+        return s.advance[glyph];
+    }
+
+    /**
+     * Draws string {@code index} of those passed to {@link #addSlot} with its left edge at
+     * {@code x}.
+     *
+     * @return the width of the string
+     */
+    public float drawString(Canvas canvas, int slot, int index, float x, float y) {
+        ensureValid();
+        final Slot s = mSlots.get(slot);
+        drawCell(canvas, s, GLYPH_COUNT + index, x, y);
+        return s.advance[GLYPH_COUNT + index];
+    }
+
+    /** Returns the bytes allocated for the atlas bitmap. */
+    @Override // BitmapBudget.Cache
+    public long getByteCount() {
+        return mLayer.getByteCount();
+    }
+
+    /** Frees the atlas bitmap. It is rendered again on next use. */
+    @Override // BitmapBudget.Cache
+    public void release() {
+        mLayer.release();
+    }
+
+    private void drawCell(Canvas canvas, Slot s, int cell, float x, float y) {
+        int left = Math.round(x) - s.padding;
+        int top = Math.round(y) - s.baseline;
+        mSrc.set(s.left[cell], s.top, s.left[cell] + s.width[cell], s.top + s.height);
+        mDst.set(left, top, left + s.width[cell], top + s.height);
+        canvas.drawBitmap(mLayer.getBitmap(), mSrc, mDst, null);
+    }
+
+    private static int glyphIndex(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        return c == ':' ? 10 : -1;
+    }
+
+    private void ensureValid() {
+        if (mLayer.isValid()) {
+            boolean matches = true;
+            for (int i = 0, size = mSlots.size(); i < size && matches; i++) {
+                matches = mSlots.get(i).matchesPaint();
+            }
+            if (matches) {
+                return;
+            }
+        }
+        render();
+    }
+
+    /** Lays the slots out one row each and renders them into the layer bitmap. */
+    private void render() {
+        int atlasWidth = 1;
+        int atlasHeight = 0;
+        for (int i = 0, size = mSlots.size(); i < size; i++) {
+            Slot s = mSlots.get(i);
+            s.color = s.paint.getColor();
+            s.textSize = s.paint.getTextSize();
+            s.typeface = s.paint.getTypeface();
+            s.antiAlias = s.paint.isAntiAlias();
+
+            s.paint.getFontMetrics(mFontMetrics);
+            s.top = atlasHeight;
+            s.baseline = s.padding + (int) Math.ceil(-mFontMetrics.ascent);
+            s.height = s.baseline + (int) Math.ceil(mFontMetrics.descent) + s.padding;
+            atlasHeight += s.height + CELL_SPACING;
+
+            int x = 0;
+            for (int cell = 0; cell < s.left.length; cell++) {
+                float advance = cell < GLYPH_COUNT
+                        ? s.paint.measureText(GLYPHS, cell, cell + 1)
+                        : s.paint.measureText(s.strings[cell - GLYPH_COUNT]);
+                s.advance[cell] = advance;
+                s.left[cell] = x;
+                s.width[cell] = (int) Math.ceil(advance) + 2 * s.padding;
+                x += s.width[cell] + CELL_SPACING;
+            }
+            atlasWidth = Math.max(atlasWidth, x);
+        }
+
+        mLayer.setSize(atlasWidth, Math.max(atlasHeight, 1));
+        Canvas canvas = mLayer.beginRecording();
+        for (int i = 0, size = mSlots.size(); i < size; i++) {
+            Slot s = mSlots.get(i);
+            mRecordPaint.set(s.paint);
+            mRecordPaint.setTextAlign(Paint.Align.LEFT);
+            float baseline = s.top + s.baseline;
+            for (int cell = 0; cell < s.left.length; cell++) {
+                float x = s.left[cell] + s.padding;
+                if (cell < GLYPH_COUNT) {
+                    canvas.drawText(GLYPHS, cell, cell + 1, x, baseline, mRecordPaint);
+                } else {
+                    canvas.drawText(s.strings[cell - GLYPH_COUNT], x, baseline, mRecordPaint);
+                }
+            }
+        }
+        mLayer.endRecording();
+    }
+}
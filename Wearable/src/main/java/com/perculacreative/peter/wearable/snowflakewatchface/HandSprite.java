@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+/**
+ * A watch hand or other element drawn around the center of the face, pre-rendered together with
+ * its shadow into a bitmap that is just large enough to hold it. Each frame then draws the bitmap
+ * rotated around the center, so the shadow blur is only paid when the sprite is recorded again.
+ * <p>
+ * Sprites are recorded in the coordinate space of the face rotated to 12 o'clock, with the center
+ * of the face at the origin.
+ */
+public final class HandSprite implements BitmapBudget.Cache {
+
+    private final CachedLayer mLayer = new CachedLayer();
+    private final Matrix mMatrix = new Matrix();
+
+    private Canvas mRecordingCanvas;
+    private int mLeft;
+    private int mTop;
+    private int mWidth;
+    private int mHeight;
+
+    public boolean isValid() {
+        return mLayer.isValid();
+    }
+
+    /** Marks the sprite as stale so it is recorded again before the next use. */
+    public void invalidate() {
+        mLayer.invalidate();
+    }
+
+    /**
+     * Returns a canvas for recording the sprite with the center of the face at the origin, or
+     * {@code null} if the bounds are empty. The bounds must hold everything drawn, shadows
+     * included. Call {@link #endRecording()} once the sprite has been drawn.
+     */
+    public Canvas beginRecording(float left, float top, float right, float bottom) {
+        mLeft = (int) Math.floor(left);
+        mTop = (int) Math.floor(top);
+        mWidth = (int) Math.ceil(right) - mLeft;
+        mHeight = (int) Math.ceil(bottom) - mTop;
+        mLayer.setSize(mWidth, mHeight);
+        Canvas canvas = mLayer.beginRecording();
+        if (canvas != null) {
+            canvas.save();
+            canvas.translate(-mLeft, -mTop);
+        }
+        mRecordingCanvas = canvas;
+        return canvas;
+    }
+
+    /**
+     * Records a line along the 12 o'clock axis from {@code innerRadius} to {@code outerRadius},
+     * padded by {@code shadowRadius} on every side.
+     */
+    public void recordLine(float innerRadius, float outerRadius, Paint paint,
+            float shadowRadius) {
+        float padding = paint.getStrokeWidth() / 2 + shadowRadius + 1;
+        Canvas canvas = beginRecording(-padding, -outerRadius - padding, padding,
+                -innerRadius + padding);
+        if (canvas != null) {
+            canvas.drawLine(0, -innerRadius, 0, -outerRadius, paint);
+            endRecording();
+        }
+    }
+
+    /** Records a circle around the center, padded by {@code shadowRadius} on every side. */
+    public void recordCircle(float radius, Paint paint, float shadowRadius) {
+        float extent = radius + paint.getStrokeWidth() / 2 + shadowRadius + 1;
+        Canvas canvas = beginRecording(-extent, -extent, extent, extent);
+        if (canvas != null) {
+            canvas.drawCircle(0, 0, radius, paint);
+            endRecording();
+        }
+    }
+
+    /** Marks the content recorded since {@link #beginRecording} as valid. */
+    public void endRecording() {
+        mRecordingCanvas.restore();
+        mRecordingCanvas = null;
+        mLayer.endRecording();
+    }
+
+    /**
+     * Draws the sprite rotated by {@code rotation} degrees around ({@code centerX},
+     * {@code centerY}).
+     */
+    public void draw(Canvas canvas, float centerX, float centerY, float rotation, Paint paint) {
+        if (!mLayer.isValid()) {
+            return;
+        }
+        setMatrix(centerX, centerY, rotation);
+        canvas.drawBitmap(mLayer.getBitmap(), mMatrix, paint);
+    }
+
+    /**
+     * Sets {@code bounds} to the area covered by the sprite when drawn with
+     * {@link #draw(Canvas, float, float, float, Paint)}.
+     */
+    public void getBounds(float centerX, float centerY, float rotation, RectF bounds) {
+        setMatrix(centerX, centerY, rotation);
+        bounds.set(0, 0, mWidth, mHeight);
+        mMatrix.mapRect(bounds);
+    }
+
+    private void setMatrix(float centerX, float centerY, float rotation) {
+        mMatrix.setTranslate(mLeft, mTop);
+        mMatrix.postRotate(rotation);
+        mMatrix.postTranslate(centerX, centerY);
+    }
+
+    /** Returns the bytes allocated for the sprite bitmap. */
+    @Override // BitmapBudget.Cache
+    public long getByteCount() {
+        return mLayer.getByteCount();
+    }
+
+    /** Frees the sprite bitmap. */
+    @Override // BitmapBudget.Cache
+    public void release() {
+        mLayer.release();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+/**
+ * Resolves the morph snowflake for a count, either by evaluating the {@link MorphTimeline} or by
+ * looking it up in a precomputed {@link MorphTable}.
+ */
+public interface MorphSource {
+
+    /** Selects the flakes that don't change for the whole of their stage. */
+    int FLAKES_FIXED = 1;
+
+    /** Selects the flakes that change with the count. */
+    int FLAKES_MORPH = 2;
+
+    int FLAKES_ALL = FLAKES_FIXED | FLAKES_MORPH;
+
+    /** Returns the morph stage that {@code count} falls in. */
+    int findStage(int count);
+
+    /**
+     * Adds the flakes of {@code stage} selected by {@code which} to {@code geometry}, resolved for
+     * {@code count}.
+     *
+     * @param which {@link #FLAKES_FIXED}, {@link #FLAKES_MORPH} or {@link #FLAKES_ALL}
+     * @param radius the length that radius keyframes are relative to
+     * @param stubLength the length that stub length keyframes are relative to
+     * @param innerRadius where the arms of every {@link MorphTimeline#KIND_SNOWFLAKE} flake start
+     */
+    void addFlakes(SnowflakeGeometry geometry, int count, int stage, int which, float radius,
+            float stubLength, float innerRadius);
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The resolved flake parameters of a {@link MorphTimeline} for every count, stored in a compact
+ * binary file and memory-mapped, so a frame looks its flakes up instead of evaluating keyframes.
+ * <p>
+ * The table is generated from the timeline the first time it is needed and regenerated whenever
+ * the timeline definition changes. Each row holds the stage and the flakes of one count:
+ * <pre>
+ * row:   byte stage, byte flake count, 2 bytes padding, max flakes * flake
+ * flake: byte kind, byte points, byte stubs, byte fixed, float radius, float stub length,
+ *        float angle
+ * </pre>
+ * Counts past the last row are folded back onto the rows of the last stage, which only repeat
+ * with the period of its count-modulus flicker. This lets the steps face, whose count is not
+ * bounded, share the table of the time face.
+ */
+public final class MorphTable implements MorphSource {
+    private static final String TAG = "MorphTable";
+
+    /** One row per count of the time face, which advances the count every 14 seconds. */
+    public static final int DEFAULT_ROW_COUNT = (int) (TimeUnit.DAYS.toSeconds(1) / 14) + 1;
+
+    private static final String FILE_NAME = "morph_table.bin";
+
+    private static final int MAGIC = 0x4d525048; // "MRPH"
+    private static final int VERSION = 1;
+
+    /** magic, version, signature, row count, max flakes, period start, period */
+    private static final int HEADER_SIZE = 7 * 4;
+    private static final int ROW_HEADER_SIZE = 4;
+    private static final int FLAKE_SIZE = 4 + 3 * 4;
+
+    /**
+     * Callback interface to receive the table once it has been mapped.
+     */
+    public interface OnLoadedListener {
+        /** Called on the main thread with the mapped table, or {@code null} if it failed. */
+        void onMorphTableLoaded(MorphTable table);
+    }
+
+    private final ByteBuffer mBuffer;
+    private final int mRowCount;
+    private final int mMaxFlakes;
+    private final int mRowSize;
+    private final int mPeriodStart;
+    private final int mPeriod;
+
+    private MorphTable(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mRowCount = buffer.getInt(12);
+        mMaxFlakes = buffer.getInt(16);
+        mPeriodStart = buffer.getInt(20);
+        mPeriod = buffer.getInt(24);
+        mRowSize = ROW_HEADER_SIZE + mMaxFlakes * FLAKE_SIZE;
+    }
+
+    /**
+     * Maps the table for {@code timeline} from the app's files directory on a background thread,
+     * generating it first if it is missing or out of date, and passes it to {@code listener} on
+     * the main thread.
+     */
+    public static void loadAsync(Context context, final MorphTimeline timeline,
+            final OnLoadedListener listener) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final MorphTable table = load(file, timeline, DEFAULT_ROW_COUNT);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onMorphTableLoaded(table);
+                    }
+                });
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    /**
+     * Maps the table stored in {@code file}, regenerating it first if it wasn't built from
+     * {@code timeline} with at least {@code rowCount} rows. Returns {@code null} on I/O errors.
+     */
+    public static synchronized MorphTable load(File file, MorphTimeline timeline, int rowCount) {
+        try {
+            MorphTable table = map(file, timeline.getSignature(), rowCount);
+            if (table == null) {
+                long start = System.currentTimeMillis();
+                write(file, timeline, rowCount);
+                table = map(file, timeline.getSignature(), rowCount);
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Generated morph table in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                }
+            }
+            return table;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to load the morph table", e);
+            return null;
+        }
+    }
+
+    /**
+     * Maps {@code file} read-only, returning {@code null} if it doesn't exist or doesn't match
+     * {@code signature} and {@code rowCount}.
+     */
+    private static MorphTable map(File file, int signature, int rowCount) throws IOException {
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != signature || buffer.getInt(12) < rowCount) {
+                return null;
+            }
+            MorphTable table = new MorphTable(buffer);
+            if (channel.size() < HEADER_SIZE + (long) table.mRowCount * table.mRowSize) {
+                return null;
+            }
+            return table;
+        } finally {
+            // The mapping stays valid after the file is closed.
+            input.close();
+        }
+    }
+
+    /**
+     * Resolves {@code timeline} for every count below {@code rowCount} and writes the table to
+     * {@code file}, replacing it atomically.
+     */
+    static void write(File file, MorphTimeline timeline, int rowCount) throws IOException {
+        int maxFlakes = timeline.getMaxFlakesPerStage();
+        int periodStart = timeline.getPeriodStart();
+        int period = timeline.getPeriod();
+        // Make sure the repeating part of the last stage is covered.
+        rowCount = Math.max(rowCount, Math.max(periodStart, 0) + period);
+        int rowSize = ROW_HEADER_SIZE + maxFlakes * FLAKE_SIZE;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + rowCount * rowSize);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(timeline.getSignature());
+        buffer.putInt(rowCount);
+        buffer.putInt(maxFlakes);
+        buffer.putInt(periodStart);
+        buffer.putInt(period);
+
+        for (int count = 0; count < rowCount; count++) {
+            int rowStart = buffer.position();
+            int stage = timeline.findStage(count);
+            float progress = timeline.getProgress(count, stage);
+            int first = timeline.getFirstFlake(stage);
+            int end = timeline.getEndFlake(stage);
+            buffer.put((byte) stage);
+            buffer.put((byte) (end - first));
+            buffer.putShort((short) 0);
+            for (int i = first; i < end; i++) {
+                buffer.put((byte) timeline.getKind(i));
+                buffer.put((byte) timeline.getPoints(i));
+                buffer.put((byte) timeline.getStubs(i, count));
+                buffer.put((byte) (timeline.isFixed(i) ? 1 : 0));
+                buffer.putFloat(timeline.getRadius(i, progress));
+                buffer.putFloat(timeline.getStubLength(i, count, progress));
+                buffer.putFloat(timeline.getAngle(i, progress));
+            }
+            buffer.position(rowStart + rowSize);
+        }
+        buffer.flip();
+
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile output = new RandomAccessFile(temp, "rw");
+        try {
+            output.setLength(0);
+            FileChannel channel = output.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Returns the row holding the flakes for {@code count}. Counts past the end of the table are
+     * folded onto the repeating part of the last stage.
+     */
+    public int getRow(int count) {
+        if (count < 0) {
+            return 0;
+        }
+        if (count < mRowCount) {
+            return count;
+        }
+        return mPeriodStart + (count - mPeriodStart) % mPeriod;
+    }
+
+    @Override // MorphSource
+    public int findStage(int count) {
+        return mBuffer.get(HEADER_SIZE + getRow(count) * mRowSize);
+    }
+
+    @Override // MorphSource
+    public void addFlakes(SnowflakeGeometry geometry, int count, int stage, int which,
+            float radius, float stubLength, float innerRadius) {
+        final ByteBuffer buffer = mBuffer;
+        int rowStart = HEADER_SIZE + getRow(count) * mRowSize;
+        int flakes = buffer.get(rowStart + 1);
+        for (int i = 0; i < flakes; i++) {
+            int flakeStart = rowStart + ROW_HEADER_SIZE + i * FLAKE_SIZE;
+            boolean fixed = buffer.get(flakeStart + 3) != 0;
+            if ((which & (fixed ? FLAKES_FIXED : FLAKES_MORPH)) == 0) {
+                continue;
+            }
+            int kind = buffer.get(flakeStart);
+            int points = buffer.get(flakeStart + 1);
+            int stubs = buffer.get(flakeStart + 2);
+            float flakeRadius = buffer.getFloat(flakeStart + 4) * radius;
+            float length = buffer.getFloat(flakeStart + 8) * stubLength;
+            float angle = buffer.getFloat(flakeStart + 12);
+
+            if (kind == MorphTimeline.KIND_MINI) {
+                geometry.addMiniSnowflake(points, flakeRadius, stubs, length, angle);
+            } else {
+                geometry.addSnowflake(points, innerRadius, flakeRadius, stubs, length, angle);
+            }
+        }
+    }
+}
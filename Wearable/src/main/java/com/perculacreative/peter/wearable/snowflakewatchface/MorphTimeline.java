@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.content.res.Resources;
+
+import java.util.Arrays;
+
+/**
+ * The stages of the morph snowflake and the keyframes of every flake within them, loaded from
+ * {@code R.array.morph_stage_thresholds} and {@code R.array.morph_flakes}.
+ * <p>
+ * All keyframes are kept in flat primitive arrays indexed by flake, so resolving a count to its
+ * stage is a binary search and building the flakes of a stage doesn't allocate.
+ */
+public final class MorphTimeline implements MorphSource {
+
+    /** A snowflake with stubbed arms, see {@link SnowflakeGeometry#addSnowflake}. */
+    public static final int KIND_SNOWFLAKE = 0;
+
+    /** A ring of small star shaped flakes, see {@link SnowflakeGeometry#addMiniSnowflake}. */
+    public static final int KIND_MINI = 1;
+
+    private static final int FIELD_COUNT = 14;
+
+    private final float[] mThresholds;
+    private final int mStageCount;
+    /** Index of the first flake of each stage, with one extra entry marking the end. */
+    private final int[] mStageStart;
+
+    private final int[] mKind;
+    private final int[] mPoints;
+    private final float[] mRadiusStart;
+    private final float[] mRadiusEnd;
+    private final int[] mStubs;
+    private final int[] mStubsStep;
+    private final int[] mStubsModulus;
+    private final float[] mLengthStart;
+    private final float[] mLengthEnd;
+    private final float[] mLengthStep;
+    private final int[] mLengthModulus;
+    private final float[] mAngleStart;
+    private final float[] mAngleEnd;
+    private final boolean[] mFixed;
+
+    private final int mSignature;
+
+    /** Loads the timeline bundled with the watch face. */
+    public static MorphTimeline load(Resources resources) {
+        return new MorphTimeline(resources.getIntArray(R.array.morph_stage_thresholds),
+                resources.getStringArray(R.array.morph_flakes));
+    }
+
+    /**
+     * @param thresholds the count at which each stage starts, in ascending order
+     * @param flakes one comma separated flake definition per entry, see {@code arrays.xml}
+     */
+    public MorphTimeline(int[] thresholds, String[] flakes) {
+        mSignature = 31 * Arrays.hashCode(thresholds) + Arrays.hashCode(flakes);
+        if (thresholds.length < 2) {
+            throw new IllegalArgumentException("The morph timeline needs at least one stage");
+        }
+        mThresholds = new float[thresholds.length];
+        for (int i = 0; i < thresholds.length; i++) {
+            if (i > 0 && thresholds[i] <= thresholds[i - 1]) {
+                throw new IllegalArgumentException("Morph thresholds must be ascending");
+            }
+            mThresholds[i] = thresholds[i];
+        }
+        mStageCount = thresholds.length - 1;
+        mStageStart = new int[mStageCount + 1];
+
+        int count = flakes.length;
+        mKind = new int[count];
+        mPoints = new int[count];
+        mRadiusStart = new float[count];
+        mRadiusEnd = new float[count];
+        mStubs = new int[count];
+        mStubsStep = new int[count];
+        mStubsModulus = new int[count];
+        mLengthStart = new float[count];
+        mLengthEnd = new float[count];
+        mLengthStep = new float[count];
+        mLengthModulus = new int[count];
+        mAngleStart = new float[count];
+        mAngleEnd = new float[count];
+        mFixed = new boolean[count];
+
+        int stage = 0;
+        for (int i = 0; i < count; i++) {
+            String[] fields = flakes[i].split(",");
+            if (fields.length != FIELD_COUNT) {
+                throw new IllegalArgumentException("Malformed morph flake: " + flakes[i]);
+            }
+            int flakeStage = Integer.parseInt(fields[0].trim());
+            if (flakeStage < stage || flakeStage >= mStageCount) {
+                throw new IllegalArgumentException("Morph flakes must be grouped by stage: "
+                        + flakes[i]);
+            }
+            while (stage < flakeStage) {
+                mStageStart[++stage] = i;
+            }
+
+            String kind = fields[1].trim();
+            if ("flake".equals(kind)) {
+                mKind[i] = KIND_SNOWFLAKE;
+            } else if ("mini".equals(kind)) {
+                mKind[i] = KIND_MINI;
+            } else {
+                throw new IllegalArgumentException("Unknown morph flake kind: " + kind);
+            }
+            mPoints[i] = Integer.parseInt(fields[2].trim());
+            mRadiusStart[i] = Float.parseFloat(fields[3].trim());
+            mRadiusEnd[i] = Float.parseFloat(fields[4].trim());
+            mStubs[i] = Integer.parseInt(fields[5].trim());
+            mStubsStep[i] = Integer.parseInt(fields[6].trim());
+            mStubsModulus[i] = Integer.parseInt(fields[7].trim());
+            mLengthStart[i] = Float.parseFloat(fields[8].trim());
+            mLengthEnd[i] = Float.parseFloat(fields[9].trim());
+            mLengthStep[i] = Float.parseFloat(fields[10].trim());
+            mLengthModulus[i] = Integer.parseInt(fields[11].trim());
+            mAngleStart[i] = Float.parseFloat(fields[12].trim());
+            mAngleEnd[i] = Float.parseFloat(fields[13].trim());
+
+            mFixed[i] = mRadiusStart[i] == mRadiusEnd[i]
+                    && mLengthStart[i] == mLengthEnd[i]
+                    && mAngleStart[i] == mAngleEnd[i]
+                    && mStubsModulus[i] == 0
+                    && mLengthModulus[i] == 0;
+        }
+        while (stage < mStageCount) {
+            mStageStart[++stage] = count;
+        }
+    }
+
+    public int getStageCount() {
+        return mStageCount;
+    }
+
+    /** Returns a hash of the definition the timeline was loaded from. */
+    public int getSignature() {
+        return mSignature;
+    }
+
+    @Override // MorphSource
+    public int findStage(int count) {
+        int low = 0;
+        int high = mStageCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mThresholds[mid] <= count) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /** Returns how far {@code count} has progressed through {@code stage}, from 0 to 1. */
+    public float getProgress(int count, int stage) {
+        float progress = (count - mThresholds[stage])
+                / (mThresholds[stage + 1] - mThresholds[stage]);
+        return progress < 0 ? 0 : (progress > 1 ? 1 : progress);
+    }
+
+    /** Returns the index of the first flake of {@code stage}. */
+    public int getFirstFlake(int stage) {
+        return mStageStart[stage];
+    }
+
+    /** Returns the index one past the last flake of {@code stage}. */
+    public int getEndFlake(int stage) {
+        return mStageStart[stage + 1];
+    }
+
+    /** Returns the largest number of flakes drawn by any one stage. */
+    public int getMaxFlakesPerStage() {
+        int max = 0;
+        for (int stage = 0; stage < mStageCount; stage++) {
+            max = Math.max(max, mStageStart[stage + 1] - mStageStart[stage]);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the count from which the flakes only repeat with period {@link #getPeriod()}: the
+     * start of the last stage if all of its keyframes are constant, its final threshold otherwise.
+     */
+    public int getPeriodStart() {
+        int last = mStageCount - 1;
+        for (int i = mStageStart[last]; i < mStageStart[mStageCount]; i++) {
+            if (mRadiusStart[i] != mRadiusEnd[i] || mLengthStart[i] != mLengthEnd[i]
+                    || mAngleStart[i] != mAngleEnd[i]) {
+                return (int) mThresholds[mStageCount];
+            }
+        }
+        return (int) mThresholds[last];
+    }
+
+    /** Returns the period in counts of the count-modulus flicker of the last stage. */
+    public int getPeriod() {
+        int period = 1;
+        for (int i = mStageStart[mStageCount - 1]; i < mStageStart[mStageCount]; i++) {
+            period = lcm(period, mStubsModulus[i]);
+            period = lcm(period, mLengthModulus[i]);
+        }
+        return period;
+    }
+
+    public int getKind(int flake) {
+        return mKind[flake];
+    }
+
+    public int getPoints(int flake) {
+        return mPoints[flake];
+    }
+
+    /** Returns whether {@code flake} stays the same for the whole of its stage. */
+    public boolean isFixed(int flake) {
+        return mFixed[flake];
+    }
+
+    /** Returns the radius of {@code flake}, relative to the hour hand radius. */
+    public float getRadius(int flake, float progress) {
+        return lerp(mRadiusStart[flake], mRadiusEnd[flake], progress);
+    }
+
+    public int getStubs(int flake, int count) {
+        int stubs = mStubs[flake];
+        if (mStubsModulus[flake] != 0) {
+            stubs += mStubsStep[flake] * (count % mStubsModulus[flake]);
+        }
+        return stubs;
+    }
+
+    /** Returns the stub length of {@code flake}, relative to a tenth of the hour hand radius. */
+    public float getStubLength(int flake, int count, float progress) {
+        float length = lerp(mLengthStart[flake], mLengthEnd[flake], progress);
+        if (mLengthModulus[flake] != 0) {
+            length += mLengthStep[flake] * (count % mLengthModulus[flake]);
+        }
+        return length;
+    }
+
+    /** Returns the angle of {@code flake} in degrees, relative to the hour hand. */
+    public float getAngle(int flake, float progress) {
+        return lerp(mAngleStart[flake], mAngleEnd[flake], progress);
+    }
+
+    @Override // MorphSource
+    public void addFlakes(SnowflakeGeometry geometry, int count, int stage, int which,
+            float radius, float stubLength, float innerRadius) {
+        float progress = getProgress(count, stage);
+        for (int i = mStageStart[stage], end = mStageStart[stage + 1]; i < end; i++) {
+            if ((which & (mFixed[i] ? FLAKES_FIXED : FLAKES_MORPH)) == 0) {
+                continue;
+            }
+            float flakeRadius = getRadius(i, progress) * radius;
+            float length = getStubLength(i, count, progress) * stubLength;
+            float angle = getAngle(i, progress);
+
+            if (mKind[i] == KIND_MINI) {
+                geometry.addMiniSnowflake(mPoints[i], flakeRadius, getStubs(i, count), length,
+                        angle);
+            } else {
+                geometry.addSnowflake(mPoints[i], innerRadius, flakeRadius, getStubs(i, count),
+                        length, angle);
+            }
+        }
+    }
+
+    private static int lcm(int a, int b) {
+        if (b == 0) {
+            return a;
+        }
+        int x = a;
+        int y = b;
+        while (y != 0) {
+            int t = x % y;
+            x = y;
+            y = t;
+        }
+        return a / x * b;
+    }
+
+    private static float lerp(float start, float end, float progress) {
+        return start + (end - start) * progress;
+    }
+}
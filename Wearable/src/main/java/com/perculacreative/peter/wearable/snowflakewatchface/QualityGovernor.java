@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks how much detail the interactive face draws from how long recent frames took to draw and
+ * from power save mode.
+ * <p>
+ * The level drops once a few frames of the recent window were over budget, and rises again only
+ * after a whole window at the current level stayed well under it. The gap between both thresholds
+ * and the fresh window after every change keep the level from oscillating. Frames that rebuild
+ * caches say nothing about the steady cost of a level and are left out, see
+ * {@link #skipNextFrame()}.
+ */
+public final class QualityGovernor {
+    private static final String TAG = "QualityGovernor";
+
+    /** Everything: all mini flake stubs, shadows and anti-aliasing. */
+    public static final int QUALITY_FULL = 0;
+    /** Fewer mini flake stubs, a lower snowflake resolution and no hand shadows. */
+    public static final int QUALITY_REDUCED = 1;
+    /** Even fewer stubs at half resolution, and the snowflake is drawn without anti-aliasing. */
+    public static final int QUALITY_MINIMAL = 2;
+
+    /** Mini flake stubs per level, see {@link SnowflakeGeometry#setMaxMiniStubs}. */
+    private static final int[] MAX_MINI_STUBS = {SnowflakeGeometry.MAX_SYMMETRY, 4, 2};
+    /** Snowflake resolution per level, see {@link SnowflakeRenderCache#setScale}. */
+    private static final float[] SNOWFLAKE_SCALES = {1, 0.75f, SnowflakeRenderCache.MIN_SCALE};
+
+    /** Number of recent frames the level is chosen from. */
+    private static final int WINDOW_SIZE = 16;
+
+    /** Frames slower than this, most of a 60 Hz vsync, count against the current level. */
+    private static final long SLOW_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(12);
+    /** Slow frames in the window that lower the level. */
+    private static final int SLOW_FRAMES_TO_DEGRADE = 2;
+    /** The level rises once every frame of a full window was faster than this. */
+    private static final long FAST_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    private final long[] mWindow = new long[WINDOW_SIZE];
+    /** Frames in the window since the last level change, at most {@link #WINDOW_SIZE}. */
+    private int mSampleCount;
+    private int mNextSample;
+    private boolean mSkipNextFrame;
+
+    /** The level chosen from the frame costs alone. */
+    private int mMeasuredLevel = QUALITY_FULL;
+    private boolean mPowerSaveMode;
+
+    /**
+     * Leaves the next frame passed to {@link #onFrameDrawn} out of the window, because it
+     * rebuilds cached bitmaps.
+     */
+    public void skipNextFrame() {
+        mSkipNextFrame = true;
+    }
+
+    /**
+     * Records how long a frame took to draw. Runs after every frame, so it must not allocate.
+     *
+     * @return whether the level changed
+     */
+    public boolean onFrameDrawn(long frameNanos) {
+        if (mSkipNextFrame) {
+            mSkipNextFrame = false;
+            return false;
+        }
+        mWindow[mNextSample] = frameNanos;
+        mNextSample = (mNextSample + 1) % WINDOW_SIZE;
+        if (mSampleCount < WINDOW_SIZE) {
+            mSampleCount++;
+        }
+
+        int slowFrames = 0;
+        long slowestNanos = 0;
+        for (int i = 0; i < mSampleCount; i++) {
+            long nanos = mWindow[(mNextSample - 1 - i + WINDOW_SIZE) % WINDOW_SIZE];
+            if (nanos > SLOW_FRAME_NANOS) {
+                slowFrames++;
+            }
+            slowestNanos = Math.max(slowestNanos, nanos);
+        }
+
+        int measuredLevel = mMeasuredLevel;
+        if (slowFrames >= SLOW_FRAMES_TO_DEGRADE && measuredLevel < QUALITY_MINIMAL) {
+            measuredLevel++;
+        } else if (mSampleCount == WINDOW_SIZE && slowestNanos < FAST_FRAME_NANOS
+                && measuredLevel > QUALITY_FULL) {
+            measuredLevel--;
+        } else {
+            return false;
+        }
+        int level = getLevel();
+        mMeasuredLevel = measuredLevel;
+        // Judge the new level by its own frames only.
+        mSampleCount = 0;
+        boolean changed = getLevel() != level;
+        if (changed && Log.isLoggable(TAG, Log.DEBUG)) {
+            logLevelChange(level, "slowest frame = "
+                    + TimeUnit.NANOSECONDS.toMicros(slowestNanos) + " us");
+        }
+        return changed;
+    }
+
+    /**
+     * Sets whether power save mode is on, which caps the level at {@link #QUALITY_REDUCED}.
+     *
+     * @return whether the level changed
+     */
+    public boolean setPowerSaveMode(boolean powerSaveMode) {
+        int level = getLevel();
+        mPowerSaveMode = powerSaveMode;
+        boolean changed = getLevel() != level;
+        if (changed && Log.isLoggable(TAG, Log.DEBUG)) {
+            logLevelChange(level, "power save = " + powerSaveMode);
+        }
+        return changed;
+    }
+
+    private void logLevelChange(int previousLevel, String reason) {
+        Log.d(TAG, "Quality " + previousLevel + " -> " + getLevel() + ": " + reason);
+    }
+
+    /** Returns one of the {@code QUALITY_} levels. */
+    public int getLevel() {
+        return mPowerSaveMode ? Math.max(mMeasuredLevel, QUALITY_REDUCED) : mMeasuredLevel;
+    }
+
+    /** Returns the most stubs a mini flake may have at the current level. */
+    public int getMaxMiniStubs() {
+        return MAX_MINI_STUBS[getLevel()];
+    }
+
+    /** Returns the resolution of the snowflake relative to the surface at the current level. */
+    public float getSnowflakeScale() {
+        return SNOWFLAKE_SCALES[getLevel()];
+    }
+
+    /** Returns whether the hands are drawn with shadows at the current level. */
+    public boolean hasShadows() {
+        return getLevel() == QUALITY_FULL;
+    }
+
+    /** Returns whether the snowflake is anti-aliased at the current level. */
+    public boolean isSnowflakeAntiAlias() {
+        return getLevel() != QUALITY_MINIMAL;
+    }
+}
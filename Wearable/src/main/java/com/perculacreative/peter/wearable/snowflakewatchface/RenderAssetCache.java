@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the assets derived from the background photo in the app's cache directory, so that a
+ * restart after the process was killed maps them instead of decoding, scaling and analysing the
+ * photo again.
+ * <p>
+ * Every surface size, background and renderer version gets its own file, named after its key.
+ * Only the most recently used files are kept. A file holds the raw pixels of both backgrounds:
+ * <pre>
+ * header: magic, version, key, width, height, flags, hand color, rest hand color, shadow color
+ * body:   interactive pixels, grayscale RGB_565 pixels if flagged
+ * </pre>
+ */
+public final class RenderAssetCache {
+    private static final String TAG = "RenderAssetCache";
+
+    /** Bump whenever the assets are derived differently, so that older files are ignored. */
+    public static final int RENDERER_VERSION = 2;
+
+    private static final String DIR_NAME = "render_assets";
+    private static final String FILE_SUFFIX = ".bin";
+    /** Files kept, enough for both faces at a couple of surface sizes. */
+    private static final int MAX_FILES = 4;
+
+    private static final int MAGIC = 0x52415354; // "RAST"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 9 * 4;
+    private static final int FLAG_RGB_565 = 1;
+    private static final int FLAG_GRAYSCALE = 1 << 1;
+
+    /**
+     * The assets derived from one background.
+     */
+    public static final class Assets {
+        /** The photo scaled to the surface width. */
+        public final Bitmap interactive;
+        /** The grayscale variant for ambient mode, {@code null} if it wasn't requested. */
+        public final Bitmap ambient;
+        public final int handColor;
+        public final int restHandColor;
+        public final int handShadowColor;
+
+        public Assets(Bitmap interactive, Bitmap ambient, int handColor, int restHandColor,
+                int handShadowColor) {
+            this.interactive = interactive;
+            this.ambient = ambient;
+            this.handColor = handColor;
+            this.restHandColor = restHandColor;
+            this.handShadowColor = handShadowColor;
+        }
+    }
+
+    private final Context mContext;
+
+    public RenderAssetCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns the key of the assets derived from background {@code resId} for a surface of
+     * {@code width} x {@code height} pixels.
+     */
+    public static int getKey(int width, int height, int backgroundColor, int resId,
+            Bitmap.Config config, boolean grayscale) {
+        int key = RENDERER_VERSION;
+        key = 31 * key + width;
+        key = 31 * key + height;
+        key = 31 * key + backgroundColor;
+        key = 31 * key + resId;
+        key = 31 * key + (config == Bitmap.Config.RGB_565 ? 1 : 0);
+        key = 31 * key + (grayscale ? 1 : 0);
+        return key;
+    }
+
+    private File getFile(int key) {
+        return new File(new File(mContext.getCacheDir(), DIR_NAME),
+                Integer.toHexString(key) + FILE_SUFFIX);
+    }
+
+    /**
+     * Reads the assets stored for {@code key}, or returns {@code null} if there are none. Call it
+     * on a background thread.
+     */
+    public Assets load(int key) {
+        File file = getFile(key);
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+        try {
+            Assets assets = map(file, key);
+            if (assets != null) {
+                // Keeps the file among the most recently used ones.
+                file.setLastModified(System.currentTimeMillis());
+            }
+            return assets;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + file, e);
+            return null;
+        }
+    }
+
+    private static Assets map(File file, int key) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != key) {
+                return null;
+            }
+            int width = buffer.getInt(12);
+            int height = buffer.getInt(16);
+            int flags = buffer.getInt(20);
+            int bytesPerPixel = (flags & FLAG_RGB_565) != 0 ? 2 : 4;
+            long size = HEADER_SIZE + (long) width * height * bytesPerPixel;
+            if ((flags & FLAG_GRAYSCALE) != 0) {
+                size += (long) width * height * 2;
+            }
+            if (width <= 0 || height <= 0 || channel.size() < size) {
+                return null;
+            }
+
+            buffer.position(HEADER_SIZE);
+            Bitmap interactive = Bitmap.createBitmap(width, height,
+                    bytesPerPixel == 2 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
+            interactive.copyPixelsFromBuffer(buffer);
+            Bitmap ambient = null;
+            if ((flags & FLAG_GRAYSCALE) != 0) {
+                ambient = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+                ambient.copyPixelsFromBuffer(buffer);
+            }
+            return new Assets(interactive, ambient, buffer.getInt(24), buffer.getInt(28),
+                    buffer.getInt(32));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Stores {@code assets} for {@code key}, replacing the file atomically, and deletes the least
+     * recently used files past the limit. Call it on a background thread.
+     */
+    public void write(int key, Assets assets) {
+        File file = getFile(key);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Unable to create " + dir);
+            return;
+        }
+        Bitmap interactive = assets.interactive;
+        boolean rgb565 = interactive.getConfig() == Bitmap.Config.RGB_565;
+        int flags = (rgb565 ? FLAG_RGB_565 : 0) | (assets.ambient != null ? FLAG_GRAYSCALE : 0);
+        int size = HEADER_SIZE + interactive.getByteCount()
+                + (assets.ambient != null ? assets.ambient.getByteCount() : 0);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(key);
+        buffer.putInt(interactive.getWidth());
+        buffer.putInt(interactive.getHeight());
+        buffer.putInt(flags);
+        buffer.putInt(assets.handColor);
+        buffer.putInt(assets.restHandColor);
+        buffer.putInt(assets.handShadowColor);
+        interactive.copyPixelsToBuffer(buffer);
+        if (assets.ambient != null) {
+            assets.ambient.copyPixelsToBuffer(buffer);
+        }
+        buffer.flip();
+
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            RandomAccessFile output = new RandomAccessFile(temp, "rw");
+            try {
+                output.setLength(0);
+                FileChannel channel = output.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+            temp.delete();
+            return;
+        }
+        trim(dir);
+    }
+
+    /** Deletes the least recently used files past {@link #MAX_FILES}. */
+    private static void trim(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        int count = files.length;
+        while (count > MAX_FILES) {
+            File oldest = null;
+            for (File file : files) {
+                if (file != null && (oldest == null
+                        || file.lastModified() < oldest.lastModified())) {
+                    oldest = file;
+                }
+            }
+            for (int i = 0; i < files.length; i++) {
+                if (files[i] == oldest) {
+                    files[i] = null;
+                }
+            }
+            oldest.delete();
+            count--;
+        }
+    }
+}
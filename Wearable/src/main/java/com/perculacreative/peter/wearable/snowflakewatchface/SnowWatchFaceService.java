@@ -24,19 +24,18 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.support.v7.graphics.Palette;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.DateFormat;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
@@ -56,10 +55,7 @@ import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
 
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
-import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -78,26 +74,48 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
     private static final Typeface NORMAL_TYPEFACE =
             Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
 
-    /**
-     * Update rate in milliseconds for normal (not ambient and not mute) mode. We update twice
-     * a second to blink the colons.
-     */
-    private static final long NORMAL_UPDATE_RATE_MS = 1000;
-
-    /**
-     * Update rate in milliseconds for mute mode. We update every minute, like in ambient mode.
-     */
-    private static final long MUTE_UPDATE_RATE_MS = TimeUnit.MINUTES.toMillis(1);
+    /** The engine drawing the face, told about memory pressure. */
+    private Engine mEngine;
 
     @Override
     public Engine onCreateEngine() {
-        return new Engine();
+        mEngine = new Engine();
+        return mEngine;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mEngine != null) {
+            mEngine.onTrimMemory(level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (mEngine != null) {
+            mEngine.onLowMemory();
+        }
+    }
+
+    /** Gives a service created by a test the context the system would attach. */
+    void attachBaseContextForTest(Context base) {
+        attachBaseContext(base);
     }
 
-    private class Engine extends CanvasWatchFaceService.Engine implements
+    class Engine extends CanvasWatchFaceService.Engine implements
             DataApi.DataListener,
             GoogleApiClient.ConnectionCallbacks,
-            GoogleApiClient.OnConnectionFailedListener{
+            GoogleApiClient.OnConnectionFailedListener,
+            SnowflakeRenderCache.FlakeBuilder,
+            SweepPacer.Callback,
+            FrameScheduler.Callback,
+            FramePreparer.Callback,
+            AmbientPrerenderer.Callback,
+            FrameSnapshot.OnLoadedListener,
+            MorphTable.OnLoadedListener,
+            BackgroundLoader.Callback {
         static final String COLON_STRING = ":";
 
         /** Alpha value for drawing time when in mute mode. */
@@ -108,8 +126,27 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
 
         static final int MSG_UPDATE_TIME = 0;
 
-        /** How often {@link #mUpdateTimeHandler} ticks in milliseconds. */
-        long mInteractiveUpdateRateMs = NORMAL_UPDATE_RATE_MS;
+        /** Picks how often {@link #mUpdateTimeHandler} ticks. */
+        final FrameRateGovernor mFrameRateGovernor = new FrameRateGovernor();
+
+        /** Picks how much detail the interactive frames draw. */
+        private final QualityGovernor mQualityGovernor = new QualityGovernor();
+        /**
+         * Mini flake stubs allowed in interactive mode, read by {@link #onPrepareFrame} on the
+         * preparer thread.
+         */
+        private int mMaxMiniStubs = SnowflakeGeometry.MAX_SYMMETRY;
+        /**
+         * Snowflake resolution in percent of the surface from the config, or
+         * {@link SnowWatchFaceUtil#SNOWFLAKE_SCALE_AUTO} to follow {@link #mQualityGovernor}.
+         */
+        private int mSnowflakeScalePercent = SnowWatchFaceUtil.SNOWFLAKE_SCALE_AUTO;
+
+        /** Paces the frames of the sweep second hand, when enabled, instead of the timer. */
+        final SweepPacer mSweepPacer = new SweepPacer(this);
+
+        /** Coalesces the redraw requests of all sources into at most one frame per vsync. */
+        final FrameScheduler mFrameScheduler = new FrameScheduler(this);
 
         /** Handler to update the time periodically in interactive mode. */
         final Handler mUpdateTimeHandler = new Handler() {
@@ -120,12 +157,12 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
                         if (Log.isLoggable(TAG, Log.VERBOSE)) {
                             Log.v(TAG, "updating time");
                         }
-                        invalidate();
+                        mFrameScheduler.requestFrame(FrameScheduler.REASON_TICK);
                         if (shouldTimerBeRunning()) {
-                            long timeMs = System.currentTimeMillis();
-                            long delayMs =
-                                    mInteractiveUpdateRateMs - (timeMs % mInteractiveUpdateRateMs);
-                            mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
+                            mUpdateTimeHandler.sendEmptyMessageAtTime(MSG_UPDATE_TIME,
+                                    mFrameRateGovernor.getNextTickUptime(
+                                            System.currentTimeMillis(),
+                                            SystemClock.uptimeMillis()));
                         }
                         break;
                 }
@@ -139,17 +176,38 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
                 .build();
 
         /**
-         * Handles time zone and locale changes.
+         * Handles time zone, locale and time setting changes.
          */
         final BroadcastReceiver mReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 mCalendar.setTimeZone(TimeZone.getDefault());
-                initFormats();
-                invalidate();
+                mTimeTextCache.reload();
+                mFrameScheduler.requestFrame(FrameScheduler.REASON_TIME_SETTINGS);
+            }
+        };
+
+        /**
+         * Tracks the battery level and power save mode for {@link #mFrameRateGovernor}.
+         */
+        final BroadcastReceiver mPowerReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+                    mFrameRateGovernor.setBatteryState(intent);
+                } else {
+                    mFrameRateGovernor.setPowerSaveMode(mPowerManager.isPowerSaveMode());
+                    if (mQualityGovernor.setPowerSaveMode(mPowerManager.isPowerSaveMode())) {
+                        applyQuality();
+                    }
+                    // Apply the new tick period right away rather than after the current one.
+                    updateTimer();
+                }
             }
         };
 
+        private PowerManager mPowerManager;
+
         /**
          * Unregistering an unregistered receiver throws an exception. Keep track of the
          * registration state to prevent that.
@@ -158,13 +216,151 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
 
         private Bitmap mBackgroundBitmap;
         private Bitmap mGrayBackgroundBitmap;
+        /** Resource of the background photo, 0 for the plain background color. */
+        private int mBackgroundResId;
+        /**
+         * Decodes and scales {@link #mBackgroundBitmap} and its ambient variant and picks the hand
+         * colors from it, or reads all of them from the disk cache.
+         */
+        private final BackgroundLoader mBackgroundLoader =
+                new BackgroundLoader(this, new RenderAssetCache(SnowWatchFaceService.this));
 
         Paint mBackgroundPaint;
 
         private Paint mHandPaint;
         private Paint mHourHandPaint;
+        /** Paint for the text in the center circle, derived from {@link #mHandPaint}. */
+        private Paint mCenterTextPaint;
         private Paint mSnowflakePaint;
 
+        private final SnowflakeGeometry mSnowflakeGeometry = new SnowflakeGeometry();
+
+        /** Snowflake rasterized for the current count, redrawn only when the count changes. */
+        private final SnowflakeRenderCache mSnowflakeRenderCache =
+                new SnowflakeRenderCache(mSnowflakeGeometry);
+
+        /**
+         * Resolves the flakes, hand angles and center text of the next minute or count change on
+         * a background thread, ahead of the frame that shows them.
+         */
+        private final FramePreparer mFramePreparer = new FramePreparer(this);
+        /** The prepared frame being drawn, {@code null} if it wasn't prepared in time. */
+        private FramePreparer.Frame mPreparedFrame;
+        /** Main thread time spent drawing full frames, to compare with the preparation time. */
+        private long mRasterNanos;
+
+        /**
+         * Held by every draw that uses the caches, so the next ambient frame can be rendered on
+         * a background thread.
+         */
+        private final Object mRenderLock = new Object();
+        /** Renders the next minute's ambient frame right after the current one was drawn. */
+        private final AmbientPrerenderer mAmbientPrerenderer =
+                new AmbientPrerenderer(this, mRenderLock);
+        /** Center text of the pre-rendered ambient frame, used on the pre-render thread only. */
+        private final char[] mAmbientCenterText = new char[16];
+        /** Accounts for the bitmaps of the caches, which may use a quarter of the heap. */
+        private final BitmapBudget mBitmapBudget =
+                new BitmapBudget(Runtime.getRuntime().maxMemory() / 4);
+        /** The static layers of the previous process, shown until the config is in. */
+        private final FrameSnapshot mFrameSnapshot =
+                new FrameSnapshot(SnowWatchFaceService.this, TAG, mRenderLock, this);
+        /** Whether the first config has been applied, or it never will be. */
+        private boolean mConfigLoaded;
+        /** Whether the config and background are in and the live static layers are drawn. */
+        private boolean mStartupComplete;
+        /** Static layers recorded since the last save, guarded by {@link #mRenderLock}. */
+        private boolean mInteractiveSnapshotPending;
+        private boolean mAmbientSnapshotPending;
+        /** Saves the pending snapshots once the frame that recorded them is posted. */
+        private final Runnable mSaveSnapshotsRunnable = new Runnable() {
+            @Override
+            public void run() {
+                saveFrameSnapshots();
+            }
+        };
+        /** When the last ambient time tick arrived, 0 once its frame was drawn. */
+        private long mTimeTickNanos;
+        /** Whether the last full frame was a pre-rendered ambient frame. */
+        private boolean mDrewPrerenderedFrame;
+        /** Time from ambient time tick to drawn frame, for pre-rendered and full frames. */
+        private long mPrerenderedWakeNanos;
+        private int mPrerenderedWakeCount;
+        private long mFullWakeNanos;
+        private int mFullWakeCount;
+
+        /**
+         * Every ambient frame of the day, pre-rendered once per configuration when the ambient
+         * background is black. {@code null} until it has been mapped.
+         */
+        private AmbientAtlas mAmbientAtlas;
+        /** Signature of the atlas loaded or being generated, 0 if none. */
+        private int mAmbientAtlasSignature;
+
+        /** Stages and keyframes of the morph snowflake, loaded from resources. */
+        private MorphTimeline mMorphTimeline;
+
+        /**
+         * Where the morph snowflake is resolved from: {@link #mMorphTimeline} until the
+         * precomputed {@link MorphTable} has been mapped.
+         */
+        private MorphSource mMorphSource;
+
+        /**
+         * Background and tick marks composed once per mode, so that a frame starts with a single
+         * blit instead of repainting them.
+         */
+        private final CachedLayer mInteractiveStaticLayer = new CachedLayer();
+        private final CachedLayer mAmbientStaticLayer = new CachedLayer();
+
+        /**
+         * Hands and center circle pre-rendered with their shadows whenever the hand colors or
+         * sizes change, so a frame draws rotated bitmaps instead of blurring every stroke.
+         */
+        private final HandSprite mHourHandSprite = new HandSprite();
+        private final HandSprite mMinuteHandSprite = new HandSprite();
+        private final HandSprite mSecondHandSprite = new HandSprite();
+        private final HandSprite mCenterCircleSprite = new HandSprite();
+
+        /**
+         * Paints and hand sprites of ambient mode, so entering or leaving it doesn't change the
+         * interactive ones.
+         */
+        private final AmbientRenderer mAmbientRenderer = new AmbientRenderer(STROKE_WIDTH,
+                mHourScaleFactor * STROKE_WIDTH, STROKE_REST_WIDTH, CENTER_TEXT_SIZE,
+                SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_BACKGROUND);
+        private final Paint mSpritePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        /**
+         * Everything below the second hand as of the last full frame, so that frames in which
+         * only the second hand moved can repaint just the region around it.
+         */
+        private final CachedLayer mBaseLayer = new CachedLayer();
+        /** Minute of the day and count that {@link #mBaseLayer} was recorded for. */
+        private int mBaseMinute = -1;
+        private int mBaseCount = -1;
+        private final RectF mLastSecondHandBounds = new RectF();
+        private final RectF mDirtyBounds = new RectF();
+        private final Rect mDirtyRect = new Rect();
+
+        /** Frames drawn in full and as second hand only, with the pixels each of them filled. */
+        private int mFullFrameCount;
+        private long mFullFramePixels;
+        private int mDirtyFrameCount;
+        private long mDirtyFramePixels;
+
+        /** Colors of a {@link FrameState}, in the order set by {@link #captureFrameState}. */
+        private static final int FRAME_COLOR_COUNT = 7;
+
+        /**
+         * State of the last frame drawn to the surface, and of the frame an invalidation would
+         * draw, so invalidations that wouldn't change anything can be skipped.
+         */
+        private final FrameState mDrawnFrameState = new FrameState(FRAME_COLOR_COUNT);
+        private final FrameState mNextFrameState = new FrameState(FRAME_COLOR_COUNT);
+        /** Invalidations skipped because the frame would have matched the last one drawn. */
+        private int mSkippedFrameCount;
+
         private int mWatchHandColor;
         private int mWatchRestHandColor;
         private int mWatchHandShadowColor;
@@ -179,7 +375,6 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
         private int mHeight;
         private float mCenterX;
         private float mCenterY;
-        private float mScale = 1;
 
         private static final float HAND_END_CAP_RADIUS = 4f;
         private static final float STROKE_WIDTH = 6f;
@@ -191,9 +386,33 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
         private static final float SECOND_TICK_STROKE_WIDTH = 2f;
         private static final float CENTER_GAP_AND_CIRCLE_RADIUS = 30f;
         private static final float mHourScaleFactor = 1.1f;
+        private static final float CENTER_TEXT_SIZE = 20f;
+
+        /** Reusable buffers for the text drawn every frame, so drawing doesn't allocate. */
+        private final char[] mDigitalText = new char[16];
+
+        /** Time and date text, formatted only when the minute or day changes. */
+        private TimeTextCache mTimeTextCache;
+
+        /**
+         * Digits, colon and AM/PM pre-rendered with the text paints, one atlas per mode so that
+         * each is only rendered again when its paints change.
+         */
+        private final GlyphAtlas mInteractiveGlyphAtlas = new GlyphAtlas();
+        private final GlyphAtlas mAmbientGlyphAtlas = new GlyphAtlas();
+
+        /** Glyph atlas slots, in the order added by {@link #addGlyphSlots}. */
+        private static final int GLYPHS_HOUR = 0;
+        private static final int GLYPHS_MINUTE = 1;
+        private static final int GLYPHS_SECOND = 2;
+        private static final int GLYPHS_COLON = 3;
+        private static final int GLYPHS_AM_PM = 4;
+        private static final int GLYPHS_CENTER = 5;
+
         private Rect mCardBounds = new Rect();
 
         Paint mDatePaint;
+        Paint mAmbientDatePaint;
         Paint mHourPaint;
         Paint mMinutePaint;
         Paint mSecondPaint;
@@ -203,16 +422,11 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
         boolean mMute;
 
         Calendar mCalendar;
-        Date mDate;
-        SimpleDateFormat mDayOfWeekFormat;
-        java.text.DateFormat mDateFormat;
 
         boolean mShouldDrawColons;
         float mXOffset;
         float mYOffset;
         float mLineHeight;
-        String mAmString;
-        String mPmString;
         int mInteractiveBackgroundColor =
                 SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_BACKGROUND;
         int mInteractiveHourDigitsColor =
@@ -265,11 +479,22 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
                     .build());
+            setUp();
+            startWorkers();
+        }
+
+        /**
+         * Creates the paints and caches the frames are drawn with. Kept apart from
+         * {@link #onCreate} so that tests can draw frames without a wallpaper connection.
+         */
+        void setUp() {
+            registerBitmapCaches();
             Resources resources = SnowWatchFaceService.this.getResources();
+            mPowerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
             mYOffset = resources.getDimension(R.dimen.digital_y_offset);
             mLineHeight = resources.getDimension(R.dimen.digital_line_height);
-            mAmString = resources.getString(R.string.digital_am);
-            mPmString = resources.getString(R.string.digital_pm);
+            mMorphTimeline = MorphTimeline.load(resources);
+            mMorphSource = mMorphTimeline;
 
             mBackgroundPaint = new Paint();
             mBackgroundPaint.setColor(mInteractiveBackgroundColor);
@@ -279,6 +504,7 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             mSecondPaint = createTextPaint(mInteractiveSecondDigitsColor);
             mAmPmPaint = createTextPaint(resources.getColor(R.color.digital_am_pm));
             mColonPaint = createTextPaint(resources.getColor(R.color.digital_colons));
+            mAmbientDatePaint = mAmbientRenderer.createTextPaint(mDatePaint, mDatePaint.getColor());
 
             // Set paint for hands
             mHandPaint = new Paint();
@@ -294,6 +520,8 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             mHourHandPaint.setStrokeWidth(mHourScaleFactor * STROKE_WIDTH);
             mHourHandPaint.setShadowLayer((mHourScaleFactor * SHADOW_RADIUS), 0, 0, Color.GRAY);
 
+            mCenterTextPaint = new Paint();
+
             // Set paint for snowflake
             mSnowflakePaint = new Paint();
             mSnowflakePaint.setColor(Color.WHITE);
@@ -305,32 +533,69 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             updateColors();
 
             mCalendar = Calendar.getInstance();
-            mDate = new Date();
-            initFormats();
+            mTimeTextCache = new TimeTextCache(SnowWatchFaceService.this, mCalendar);
+            mTimeTextCache.setPaints(mHourPaint, mMinutePaint);
+
+            String amString = resources.getString(R.string.digital_am);
+            String pmString = resources.getString(R.string.digital_pm);
+            addGlyphSlots(mInteractiveGlyphAtlas, mHourPaint, mMinutePaint, mSecondPaint,
+                    mColonPaint, mAmPmPaint, mCenterTextPaint, amString, pmString);
+            addGlyphSlots(mAmbientGlyphAtlas,
+                    mAmbientRenderer.createTextPaint(mHourPaint,
+                            SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_HOUR_DIGITS),
+                    mAmbientRenderer.createTextPaint(mMinutePaint,
+                            SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_MINUTE_DIGITS),
+                    mAmbientRenderer.createTextPaint(mSecondPaint,
+                            SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_SECOND_DIGITS),
+                    mAmbientRenderer.createTextPaint(mColonPaint, mColonPaint.getColor()),
+                    mAmbientRenderer.createTextPaint(mAmPmPaint, mAmPmPaint.getColor()),
+                    mAmbientRenderer.getCenterTextPaint(), amString, pmString);
+        }
+
+        /**
+         * Starts the worker threads and maps the morph table. Tests that measure the draw path
+         * leave them stopped, so that nothing but drawing allocates.
+         */
+        void startWorkers() {
+            MorphTable.loadAsync(SnowWatchFaceService.this, mMorphTimeline, this);
+            mFramePreparer.start();
+            mBackgroundLoader.start();
+            mFrameSnapshot.start();
+            mAmbientPrerenderer.start();
+        }
+
+        @Override // MorphTable.OnLoadedListener
+        public void onMorphTableLoaded(MorphTable table) {
+            if (table != null) {
+                mMorphSource = table;
+                mBaseLayer.invalidate();
+                mDrawnFrameState.invalidate();
+                mFramePreparer.invalidate();
+                mAmbientPrerenderer.invalidate();
+            }
+        }
+
+        /**
+         * Adds a slot for every text paint to {@code atlas}. The AM/PM strings are stored in the
+         * order of {@link Calendar#AM} and {@link Calendar#PM}.
+         */
+        private void addGlyphSlots(GlyphAtlas atlas, Paint hourPaint, Paint minutePaint,
+                Paint secondPaint, Paint colonPaint, Paint amPmPaint, Paint centerTextPaint,
+                String amString, String pmString) {
+            atlas.addSlot(hourPaint, 1);
+            atlas.addSlot(minutePaint, 1);
+            atlas.addSlot(secondPaint, 1);
+            atlas.addSlot(colonPaint, 1);
+            atlas.addSlot(amPmPaint, 1, amString, pmString);
+            // The center text inherits the stroke and shadow of the hand paint.
+            atlas.addSlot(centerTextPaint, SHADOW_RADIUS + (int) Math.ceil(STROKE_WIDTH / 8));
         }
 
         private void updateColors() {
             mBackgroundPaint.setColor(mInteractiveBackgroundColor);
 
-            if (mBackgroundBitmap != null) {
-                // Asynchronous call to generate Palette
-                Palette.from(mBackgroundBitmap).generate(
-                        new Palette.PaletteAsyncListener() {
-                            public void onGenerated(Palette palette) {
-                            /*
-                             * Sometimes, palette is unable to generate a color palette
-                             * so we need to check that we have one.
-                             */
-                                if (palette != null) {
-                                    Log.d("onGenerated", palette.toString());
-                                    mWatchHandColor = palette.getVibrantColor(Color.WHITE);
-                                    mWatchRestHandColor = palette.getLightVibrantColor(Color.WHITE);
-                                    mWatchHandShadowColor = palette.getDarkMutedColor(Color.BLACK);
-                                    setWatchHandColor();
-                                }
-                            }
-                        });
-            } else {
+            // With a photo, the background loader picks the hand colors from it.
+            if (mBackgroundResId == 0) {
                 float[] hsv = new float[3];
                 Color.colorToHSV(mInteractiveBackgroundColor, hsv);
                 hsv[1] = 0.2f;
@@ -342,28 +607,257 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             }
         }
 
+        /** Sets the interactive hand colors. Ambient mode draws with {@link #mAmbientRenderer}. */
         private void setWatchHandColor() {
+            mHandPaint.setColor(mWatchHandColor);
+            mHourHandPaint.setColor(mWatchHandColor);
+            mSnowflakePaint.setColor(mWatchRestHandColor);
+            if (mQualityGovernor.hasShadows()) {
+                mHourHandPaint.setShadowLayer(mHourScaleFactor * SHADOW_RADIUS, 0, 0,
+                        mWatchHandShadowColor);
+                mHandPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+            } else {
+                mHourHandPaint.clearShadowLayer();
+                mHandPaint.clearShadowLayer();
+            }
+
+            // The tick marks use the snowflake color.
+            mInteractiveStaticLayer.invalidate();
+            updateCenterTextPaint();
+            // The atlas can't tell that the shadow of the center text changed.
+            mInteractiveGlyphAtlas.invalidate();
+            invalidateHandSprites();
+            // The next frame records the sprites again, which the level isn't to be judged by.
+            mQualityGovernor.skipNextFrame();
+        }
+
+        /**
+         * Applies the level of {@link #mQualityGovernor} to the interactive paints and flakes and
+         * redraws.
+         */
+        private void applyQuality() {
+            mMaxMiniStubs = mQualityGovernor.getMaxMiniStubs();
+            updateSnowflakeDetail();
+            mSnowflakePaint.setAntiAlias(mQualityGovernor.isSnowflakeAntiAlias());
+            mFramePreparer.invalidate();
+            // Updates the shadows and invalidates everything drawn with the hand paints.
+            setWatchHandColor();
+            mDrawnFrameState.invalidate();
+            mFrameScheduler.requestFrame(FrameScheduler.REASON_QUALITY);
+        }
+
+        /**
+         * Limits the mini flake stubs and the snowflake resolution to the quality level in
+         * interactive mode. Ambient frames always draw every stub at full resolution, they are
+         * pre-rendered or drawn once a minute, and filtering would add colors low-bit ambient
+         * can't show.
+         */
+        private void updateSnowflakeDetail() {
+            final float scale;
             if (mAmbient) {
-                mHandPaint.setColor(Color.WHITE);
-                mHourHandPaint.setColor(Color.WHITE);
-                mSnowflakePaint.setColor(Color.GRAY);
-                mHourHandPaint.setShadowLayer(mHourScaleFactor * SHADOW_RADIUS, 0, 0, Color.BLACK);
-                mHandPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, Color.BLACK);
+                scale = 1;
+            } else if (mSnowflakeScalePercent != SnowWatchFaceUtil.SNOWFLAKE_SCALE_AUTO) {
+                scale = mSnowflakeScalePercent / 100f;
             } else {
-                mHandPaint.setColor(mWatchHandColor);
-                mHourHandPaint.setColor(mWatchHandColor);
-                mSnowflakePaint.setColor(mWatchRestHandColor);
-                mHourHandPaint.setShadowLayer(mHourScaleFactor * SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-                mHandPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+                scale = mQualityGovernor.getSnowflakeScale();
+            }
+            synchronized (mRenderLock) {
+                mSnowflakeGeometry.setMaxMiniStubs(mAmbient
+                        ? SnowflakeGeometry.MAX_SYMMETRY : mMaxMiniStubs);
+                mSnowflakeRenderCache.setScale(scale);
+                // The flake cache doesn't notice the limit or the anti-aliasing changing.
+                mSnowflakeRenderCache.invalidate();
+            }
+        }
+
+        private void setSnowflakeScalePercent(int percent) {
+            mSnowflakeScalePercent = percent;
+            updateSnowflakeDetail();
+            mDrawnFrameState.invalidate();
+        }
+
+        /**
+         * Feeds the cost of a frame to {@link #mQualityGovernor}, after it was captured. A frame
+         * that rasterized the snowflake again costs more than its level and is left out.
+         */
+        private void onInteractiveFrameDrawn(long frameNanos, boolean rasterizedSnowflake) {
+            if (mAmbient) {
+                return;
+            }
+            if (rasterizedSnowflake) {
+                mQualityGovernor.skipNextFrame();
+            }
+            if (mQualityGovernor.onFrameDrawn(frameNanos)) {
+                applyQuality();
+            }
+        }
+
+        /** Marks the interactive hand sprites as stale. */
+        private void invalidateHandSprites() {
+            // The hour and minute hands are drawn into the base layer.
+            mBaseLayer.invalidate();
+            mHourHandSprite.invalidate();
+            mMinuteHandSprite.invalidate();
+            mSecondHandSprite.invalidate();
+            mCenterCircleSprite.invalidate();
+        }
+
+        /** Records the hand sprites with the current hand paints and lengths. */
+        private void recordHandSprites() {
+            mHourHandSprite.recordLine(CENTER_GAP_AND_CIRCLE_RADIUS, mHourHandRadius,
+                    mHourHandPaint, mHourScaleFactor * SHADOW_RADIUS);
+            mMinuteHandSprite.recordLine(CENTER_GAP_AND_CIRCLE_RADIUS, mMinuteHandLength,
+                    mHandPaint, SHADOW_RADIUS);
+            mSecondHandSprite.recordLine(CENTER_GAP_AND_CIRCLE_RADIUS, mSecondHandLength,
+                    mHandPaint, SHADOW_RADIUS);
+            mCenterCircleSprite.recordCircle(CENTER_GAP_AND_CIRCLE_RADIUS, mHandPaint,
+                    SHADOW_RADIUS);
+        }
+
+        private void updateCenterTextPaint() {
+            mCenterTextPaint.set(mHandPaint);
+            mCenterTextPaint.setTextSize(CENTER_TEXT_SIZE);
+            mCenterTextPaint.setStrokeWidth(STROKE_WIDTH / 4);
+            mCenterTextPaint.setTextAlign(Paint.Align.CENTER);
+        }
+
+        private void invalidateStaticLayers() {
+            mBaseLayer.invalidate();
+            mAmbientPrerenderer.invalidate();
+            mInteractiveStaticLayer.invalidate();
+            mAmbientStaticLayer.invalidate();
+        }
+
+        /**
+         * Registers every bitmap cache with {@link #mBitmapBudget}. Caches of frames that may
+         * never be drawn go first under memory pressure.
+         */
+        private void registerBitmapCaches() {
+            mBitmapBudget.register("ambient frames", BitmapBudget.TIER_OPTIONAL,
+                    mAmbientPrerenderer);
+            mBitmapBudget.register("ambient atlas", BitmapBudget.TIER_OPTIONAL,
+                    new BitmapBudget.Cache() {
+                        @Override
+                        public long getByteCount() {
+                            return mAmbientAtlas != null ? mAmbientAtlas.getByteCount() : 0;
+                        }
+
+                        @Override
+                        public void release() {
+                            if (mAmbientAtlas != null) {
+                                mAmbientAtlas.release();
+                            }
+                        }
+                    });
+            mBitmapBudget.register("base layer", BitmapBudget.TIER_FRAME, mBaseLayer);
+            mBitmapBudget.register("interactive static layer", BitmapBudget.TIER_FRAME,
+                    mInteractiveStaticLayer);
+            mBitmapBudget.register("ambient static layer", BitmapBudget.TIER_FRAME,
+                    mAmbientStaticLayer);
+            mBitmapBudget.register("snowflake", BitmapBudget.TIER_FRAME, mSnowflakeRenderCache);
+            mBitmapBudget.register("interactive glyphs", BitmapBudget.TIER_FRAME,
+                    mInteractiveGlyphAtlas);
+            mBitmapBudget.register("ambient glyphs", BitmapBudget.TIER_FRAME, mAmbientGlyphAtlas);
+            mBitmapBudget.register("hour hand", BitmapBudget.TIER_FRAME, mHourHandSprite);
+            mBitmapBudget.register("minute hand", BitmapBudget.TIER_FRAME, mMinuteHandSprite);
+            mBitmapBudget.register("second hand", BitmapBudget.TIER_FRAME, mSecondHandSprite);
+            mBitmapBudget.register("center circle", BitmapBudget.TIER_FRAME, mCenterCircleSprite);
+            mBitmapBudget.register("ambient hands", BitmapBudget.TIER_FRAME, mAmbientRenderer);
+            mBitmapBudget.register("startup snapshot", BitmapBudget.TIER_OPTIONAL, mFrameSnapshot);
+            mBitmapBudget.register("background", BitmapBudget.TIER_FRAME,
+                    new BitmapBudget.Cache() {
+                        @Override
+                        public long getByteCount() {
+                            return getAllocationByteCount(mBackgroundBitmap)
+                                    + getAllocationByteCount(mGrayBackgroundBitmap);
+                        }
+
+                        @Override
+                        public void release() {
+                            // Dropped rather than recycled, the loader thread may still be
+                            // writing them to the render asset cache. They are loaded again in
+                            // the current config.
+                            mBackgroundBitmap = null;
+                            mGrayBackgroundBitmap = null;
+                            invalidateStaticLayers();
+                            requestBackground();
+                        }
+                    });
+        }
+
+        private long getAllocationByteCount(Bitmap bitmap) {
+            return bitmap != null ? bitmap.getAllocationByteCount() : 0;
+        }
+
+        /** Frees caches for a trim {@code level} the service received. */
+        void onTrimMemory(int level) {
+            synchronized (mRenderLock) {
+                if (mBitmapBudget.onTrimMemory(level)) {
+                    applyBitmapConfig();
+                }
+            }
+        }
+
+        /** Frees all caches, memory is about to run out. */
+        void onLowMemory() {
+            synchronized (mRenderLock) {
+                if (mBitmapBudget.onLowMemory()) {
+                    applyBitmapConfig();
+                }
+            }
+        }
+
+        /**
+         * Switches the opaque caches to the config {@link #mBitmapBudget} allows, from their next
+         * recording on. Must hold {@link #mRenderLock}.
+         */
+        private void applyBitmapConfig() {
+            Bitmap.Config config = mBitmapBudget.getOpaqueConfig();
+            mInteractiveStaticLayer.setConfig(config);
+            mAmbientStaticLayer.setConfig(config);
+            mBaseLayer.setConfig(config);
+            mAmbientPrerenderer.setConfig(config);
+            if (mBackgroundBitmap != null && mBackgroundBitmap.getConfig() != config) {
+                requestBackground();
             }
         }
 
         @Override
         public void onDestroy() {
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            if (mEngine == this) {
+                mEngine = null;
+            }
+            tearDown();
             super.onDestroy();
         }
 
+        /** Stops the worker threads and frees the caches, undoing {@link #setUp}. */
+        void tearDown() {
+            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mUpdateTimeHandler.removeCallbacks(mSaveSnapshotsRunnable);
+            mSweepPacer.stop();
+            mFrameScheduler.cancel();
+            mFramePreparer.quit();
+            mBackgroundLoader.quit();
+            mFrameSnapshot.quit();
+            mAmbientPrerenderer.quit();
+            mAmbientRenderer.release();
+            if (mAmbientAtlas != null) {
+                mAmbientAtlas.release();
+                mAmbientAtlas = null;
+            }
+            mInteractiveStaticLayer.release();
+            mAmbientStaticLayer.release();
+            mSnowflakeRenderCache.release();
+            mBaseLayer.release();
+            mHourHandSprite.release();
+            mMinuteHandSprite.release();
+            mSecondHandSprite.release();
+            mCenterCircleSprite.release();
+            mInteractiveGlyphAtlas.release();
+            mAmbientGlyphAtlas.release();
+        }
+
         private Paint createTextPaint(int defaultInteractiveColor) {
             return createTextPaint(defaultInteractiveColor, NORMAL_TYPEFACE);
         }
@@ -382,19 +876,52 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
                 Log.d(TAG, "onVisibilityChanged: " + visible);
             }
             super.onVisibilityChanged(visible);
+            // The surface may not hold the last frame anymore.
+            mDrawnFrameState.invalidate();
 
             if (visible) {
                 mGoogleApiClient.connect();
 //                mStepsGoogleApiClient.connect();
 
                 registerReceiver();
+                mFrameRateGovernor.onWake(SystemClock.uptimeMillis());
+                mSweepPacer.resetFallback();
 
                 // Update time zone and date formats, in case they changed while we weren't visible.
                 mCalendar.setTimeZone(TimeZone.getDefault());
-                initFormats();
+                mTimeTextCache.reload();
             } else {
                 unregisterReceiver();
 
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Snowflake cache: hits = " + mSnowflakeRenderCache.getHitCount()
+                            + ", misses = " + mSnowflakeRenderCache.getMissCount()
+                            + ", fixed misses = " + mSnowflakeRenderCache.getFixedMissCount());
+                    Log.d(TAG, "Frames: full = " + mFullFrameCount + " (" + mFullFramePixels
+                            + " px), second hand only = " + mDirtyFrameCount + " ("
+                            + mDirtyFramePixels + " px), skipped = " + mSkippedFrameCount
+                            + " (" + getSkippedFramePercent() + "%)");
+                    Log.d(TAG, "Redraw requests: " + mFrameScheduler.getRequestCount()
+                            + " coalesced into " + mFrameScheduler.getFrameCount() + " frames");
+                    Log.d(TAG, "Prepared frames: hits = " + mFramePreparer.getHitCount()
+                            + ", misses = " + mFramePreparer.getMissCount() + ", prepare = "
+                            + TimeUnit.NANOSECONDS.toMicros(mFramePreparer.getPrepareNanos())
+                            + " us, raster = " + TimeUnit.NANOSECONDS.toMicros(mRasterNanos)
+                            + " us");
+                    mBitmapBudget.logStats();
+                }
+                mFrameScheduler.resetStats();
+                mFramePreparer.resetStats();
+                synchronized (mRenderLock) {
+                    mSnowflakeRenderCache.resetStats();
+                }
+                mRasterNanos = 0;
+                mFullFrameCount = 0;
+                mFullFramePixels = 0;
+                mDirtyFrameCount = 0;
+                mDirtyFramePixels = 0;
+                mSkippedFrameCount = 0;
+
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
                     Wearable.DataApi.removeListener(mGoogleApiClient, this);
                     mGoogleApiClient.disconnect();
@@ -410,13 +937,6 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             updateTimer();
         }
 
-        private void initFormats() {
-            mDayOfWeekFormat = new SimpleDateFormat("EEEE", Locale.getDefault());
-            mDayOfWeekFormat.setCalendar(mCalendar);
-            mDateFormat = DateFormat.getDateFormat(SnowWatchFaceService.this);
-            mDateFormat.setCalendar(mCalendar);
-        }
-
         private void registerReceiver() {
             if (mRegisteredReceiver) {
                 return;
@@ -424,7 +944,16 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             mRegisteredReceiver = true;
             IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
             filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
             SnowWatchFaceService.this.registerReceiver(mReceiver, filter);
+
+            IntentFilter powerFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+            powerFilter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+            SnowWatchFaceService.this.registerReceiver(mPowerReceiver, powerFilter);
+            mFrameRateGovernor.setPowerSaveMode(mPowerManager.isPowerSaveMode());
+            if (mQualityGovernor.setPowerSaveMode(mPowerManager.isPowerSaveMode())) {
+                applyQuality();
+            }
         }
 
         private void unregisterReceiver() {
@@ -433,6 +962,7 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             }
             mRegisteredReceiver = false;
             SnowWatchFaceService.this.unregisterReceiver(mReceiver);
+            SnowWatchFaceService.this.unregisterReceiver(mPowerReceiver);
         }
 
         @Override
@@ -441,6 +971,8 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
                 Log.d(TAG, "onApplyWindowInsets: " + (insets.isRound() ? "round" : "square"));
             }
             super.onApplyWindowInsets(insets);
+            mDrawnFrameState.invalidate();
+            mAmbientPrerenderer.invalidate();
 
             // Load resources that have alternate values for round watches.
             Resources resources = SnowWatchFaceService.this.getResources();
@@ -458,19 +990,39 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             mSecondPaint.setTextSize(textSize);
             mAmPmPaint.setTextSize(amPmSize);
             mColonPaint.setTextSize(textSize);
+            mAmbientRenderer.updateTextPaints();
 
             mColonWidth = mColonPaint.measureText(COLON_STRING);
+            mTimeTextCache.invalidateWidths();
+            mInteractiveGlyphAtlas.invalidate();
+            mAmbientGlyphAtlas.invalidate();
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
+            mDrawnFrameState.invalidate();
 
             boolean burnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
             mHourPaint.setTypeface(burnInProtection ? NORMAL_TYPEFACE : BOLD_TYPEFACE);
+            mTimeTextCache.invalidateWidths();
 
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
             mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+            synchronized (mRenderLock) {
+                // Follows the hour typeface too.
+                mAmbientRenderer.setProperties(mLowBitAmbient, mBurnInProtection);
+                mAmbientRenderer.updateTextPaints();
+                // The flake cache only notices color changes, and the glyph atlas doesn't notice
+                // stroke width changes.
+                mSnowflakeRenderCache.invalidate();
+                mAmbientGlyphAtlas.invalidate();
+            }
+
+            // The ambient background depends on both properties.
+            invalidateStaticLayers();
+            requestBackground();
+            mFrameScheduler.requestFrame(FrameScheduler.REASON_PROPERTIES);
 
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "onPropertiesChanged: burn-in protection = " + burnInProtection
@@ -484,10 +1036,13 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "onTimeTick: ambient = " + isInAmbientMode());
             }
+            if (mAmbient) {
+                mTimeTickNanos = System.nanoTime();
+            }
 
 //            getTotalSteps();
-//
-//            invalidate();
+
+            mFrameScheduler.requestFrame(FrameScheduler.REASON_TIME_TICK);
         }
 
 //        private void getTotalSteps() {
@@ -516,50 +1071,65 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "onAmbientModeChanged: " + inAmbientMode);
             }
-            adjustPaintColorToCurrentMode(mBackgroundPaint, mInteractiveBackgroundColor,
-                    SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_BACKGROUND);
-            adjustPaintColorToCurrentMode(mHourPaint, mInteractiveHourDigitsColor,
-                    SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_HOUR_DIGITS);
-            adjustPaintColorToCurrentMode(mMinutePaint, mInteractiveMinuteDigitsColor,
-                    SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_MINUTE_DIGITS);
-            // Actually, the seconds are not rendered in the ambient mode, so we could pass just any
-            // value as ambientColor here.
-            adjustPaintColorToCurrentMode(mSecondPaint, mInteractiveSecondDigitsColor,
-                    SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_SECOND_DIGITS);
-
-            if (mAmbient != inAmbientMode) {
-                mAmbient = inAmbientMode;
-                if (mLowBitAmbient || mBurnInProtection) {
-                    mHandPaint.setAntiAlias(!inAmbientMode);
-                }
-                setWatchHandColor();
-                invalidate();
+            // Drop a frame the pre-render thread may have rendered before the last ambient exit.
+            mAmbientPrerenderer.invalidate();
+
+            // Ambient mode draws with the paints of mAmbientRenderer, so switching modes only
+            // switches which paints, sprites and static layer are drawn.
+            if (!inAmbientMode) {
+                mFrameRateGovernor.onWake(SystemClock.uptimeMillis());
+                mSweepPacer.resetFallback();
+                onAmbientExit();
             }
 
-            if (mLowBitAmbient) {
-                boolean antiAlias = !inAmbientMode;
-                mDatePaint.setAntiAlias(antiAlias);
-                mHourPaint.setAntiAlias(antiAlias);
-                mMinutePaint.setAntiAlias(antiAlias);
-                mSecondPaint.setAntiAlias(antiAlias);
-                mAmPmPaint.setAntiAlias(antiAlias);
-                mColonPaint.setAntiAlias(antiAlias);
-            }
-            invalidate();
+            mAmbient = inAmbientMode;
+            updateSnowflakeDetail();
+            mFrameScheduler.requestFrame(FrameScheduler.REASON_AMBIENT);
 
             // Whether the timer should be running depends on whether we're in ambient mode (as well
             // as whether we're visible), so we may need to start or stop the timer.
             updateTimer();
         }
 
-        private void adjustPaintColorToCurrentMode(Paint paint, int interactiveColor,
-                                                   int ambientColor) {
-            paint.setColor(isInAmbientMode() ? ambientColor : interactiveColor);
+        /** Frees the pre-rendered ambient frames and logs how much they shortened the wakeups. */
+        private void onAmbientExit() {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Ambient frames: pre-rendered = " + mAmbientPrerenderer.getHitCount()
+                        + " (" + getAverageMicros(mPrerenderedWakeNanos, mPrerenderedWakeCount)
+                        + " us from time tick to frame, "
+                        + TimeUnit.NANOSECONDS.toMicros(mAmbientPrerenderer.getRenderNanos())
+                        + " us rendering ahead), full = " + mAmbientPrerenderer.getMissCount()
+                        + " (" + getAverageMicros(mFullWakeNanos, mFullWakeCount)
+                        + " us from time tick to frame)");
+            }
+            mAmbientPrerenderer.resetStats();
+            mAmbientPrerenderer.release();
+            if (mAmbientAtlas != null) {
+                mAmbientAtlas.release();
+            }
+            mTimeTickNanos = 0;
+            mPrerenderedWakeNanos = 0;
+            mPrerenderedWakeCount = 0;
+            mFullWakeNanos = 0;
+            mFullWakeCount = 0;
+        }
+
+        private long getAverageMicros(long nanos, int count) {
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(nanos / count);
         }
 
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             super.onSurfaceChanged(holder, format, width, height);
+            setSurfaceSize(width, height);
+        }
+
+        /** Lays the face out for a surface of {@code width} x {@code height} pixels. */
+        void setSurfaceSize(int width, int height) {
+            mDrawnFrameState.invalidate();
+            mFramePreparer.invalidate();
+            mAmbientPrerenderer.invalidate();
+            mAmbientPrerenderer.setSize(width, height);
             mWidth = width;
             mHeight = height;
             /*
@@ -577,29 +1147,99 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             mMinuteHandLength = mCenterX * 0.7f;
             mSecondHandLength = mCenterX * 0.9f;
 
-            if (mBackgroundBitmap != null) {
-                mScale = ((float) width) / (float) mBackgroundBitmap.getWidth();
+            synchronized (mRenderLock) {
+                mSnowflakeGeometry.setCenter(mCenterX, mCenterY);
+                mInteractiveStaticLayer.setSize(width, height);
+                mAmbientStaticLayer.setSize(width, height);
+                mSnowflakeRenderCache.setSize(width, height);
+                mBaseLayer.setSize(width, height);
+                // The new size may no longer fit the budget.
+                applyBitmapConfig();
+                // Flake dimensions are relative to the surface size.
+                mSnowflakeRenderCache.invalidate();
+                invalidateHandSprites();
+                mAmbientRenderer.invalidateSprites();
+            }
 
-                mBackgroundBitmap = Bitmap.createScaledBitmap(mBackgroundBitmap,
-                        (int) (mBackgroundBitmap.getWidth() * mScale),
-                        (int) (mBackgroundBitmap.getHeight() * mScale), true);
+            // The current background stays until the one for the new size is loaded.
+            requestBackground();
+            invalidateStaticLayers();
+        }
 
-                if (!mBurnInProtection || !mLowBitAmbient) {
-                    initGrayBackgroundBitmap();
-                }
+        /**
+         * Loads the background photo for the surface width on a background thread, unless the
+         * face has none. The grayscale variant is only needed when ambient mode shows the photo.
+         */
+        private void requestBackground() {
+            if (mBackgroundResId != 0) {
+                Bitmap.Config config = mBitmapBudget.getOpaqueConfig();
+                boolean grayscale = !mLowBitAmbient && !mBurnInProtection;
+                mBackgroundLoader.request(SnowWatchFaceService.this.getResources(),
+                        mBackgroundResId, mWidth, config, grayscale,
+                        RenderAssetCache.getKey(mWidth, mHeight, mInteractiveBackgroundColor,
+                                mBackgroundResId, config, grayscale));
+            }
+        }
+
+        @Override // BackgroundLoader.Callback
+        public void onBackgroundLoaded(RenderAssetCache.Assets assets) {
+            mBackgroundBitmap = assets.interactive;
+            mGrayBackgroundBitmap = assets.ambient;
+            mWatchHandColor = assets.handColor;
+            mWatchRestHandColor = assets.restHandColor;
+            mWatchHandShadowColor = assets.handShadowColor;
+            setWatchHandColor();
+            invalidateStaticLayers();
+            mDrawnFrameState.invalidate();
+            mFrameScheduler.requestFrame(FrameScheduler.REASON_BACKGROUND);
+            updateStartupComplete();
+        }
+
+        @Override // FrameSnapshot.OnLoadedListener
+        public void onSnapshotLoaded() {
+            if (mStartupComplete) {
+                // Too late, the live static layers are already drawn.
+                mFrameSnapshot.release();
+                return;
             }
+            invalidateStaticLayers();
+            mDrawnFrameState.invalidate();
+            mFrameScheduler.requestFrame(FrameScheduler.REASON_STARTUP);
         }
 
-        private void initGrayBackgroundBitmap() {
-            mGrayBackgroundBitmap = Bitmap.createBitmap(mBackgroundBitmap.getWidth(),
-                    mBackgroundBitmap.getHeight(), Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(mGrayBackgroundBitmap);
-            Paint grayPaint = new Paint();
-            ColorMatrix colorMatrix = new ColorMatrix();
-            colorMatrix.setSaturation(0);
-            ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
-            grayPaint.setColorFilter(filter);
-            canvas.drawBitmap(mBackgroundBitmap, 0, 0, grayPaint);
+        /**
+         * Replaces the snapshot of the previous process with the live static layers once the
+         * config and the background are in.
+         */
+        private void updateStartupComplete() {
+            if (mStartupComplete || !mConfigLoaded
+                    || (mBackgroundResId != 0 && mBackgroundBitmap == null)) {
+                return;
+            }
+            synchronized (mRenderLock) {
+                mStartupComplete = true;
+                mFrameSnapshot.release();
+            }
+            invalidateStaticLayers();
+            mDrawnFrameState.invalidate();
+            mFrameScheduler.requestFrame(FrameScheduler.REASON_STARTUP);
+        }
+
+        /**
+         * Saves the static layers recorded since the last call as the snapshots for the next
+         * process. Copying them takes a while, so it runs after the frame instead of in it.
+         */
+        private void saveFrameSnapshots() {
+            synchronized (mRenderLock) {
+                if (mInteractiveSnapshotPending && mInteractiveStaticLayer.isValid()) {
+                    mFrameSnapshot.save(mInteractiveStaticLayer.getBitmap(), false);
+                }
+                if (mAmbientSnapshotPending && mAmbientStaticLayer.isValid()) {
+                    mFrameSnapshot.save(mAmbientStaticLayer.getBitmap(), true);
+                }
+                mInteractiveSnapshotPending = false;
+                mAmbientSnapshotPending = false;
+            }
         }
 
         @Override
@@ -611,7 +1251,7 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
 
             boolean inMuteMode = interruptionFilter == WatchFaceService.INTERRUPTION_FILTER_NONE;
             // We only need to update once a minute in mute mode.
-            setInteractiveUpdateRateMs(inMuteMode ? MUTE_UPDATE_RATE_MS : NORMAL_UPDATE_RATE_MS);
+            mFrameRateGovernor.setMuted(inMuteMode);
 
             if (mMute != inMuteMode) {
                 mMute = inMuteMode;
@@ -621,55 +1261,47 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
                 mMinutePaint.setAlpha(alpha);
                 mColonPaint.setAlpha(alpha);
                 mAmPmPaint.setAlpha(alpha);
-                invalidate();
-            }
-        }
-
-        public void setInteractiveUpdateRateMs(long updateRateMs) {
-            if (updateRateMs == mInteractiveUpdateRateMs) {
-                return;
-            }
-            mInteractiveUpdateRateMs = updateRateMs;
+                mAmbientRenderer.updateTextPaints();
+                mFrameScheduler.requestFrame(FrameScheduler.REASON_INTERRUPTION);
 
-            // Stop and restart the timer so the new update rate takes effect immediately.
-            if (shouldTimerBeRunning()) {
+                // Stop and restart the timer so the new update rate takes effect immediately.
                 updateTimer();
             }
         }
 
-        private void updatePaintIfInteractive(Paint paint, int interactiveColor) {
-            if (!isInAmbientMode() && paint != null) {
-                paint.setColor(interactiveColor);
+        private void setSweepFps(int fps) {
+            mSweepPacer.setFps(fps);
+            updateTimer();
+            mDrawnFrameState.invalidate();
+        }
+
+        /** Sets the color of an interactive paint, which ambient mode never draws with. */
+        private void setInteractivePaintColor(Paint paint, int color) {
+            if (paint != null) {
+                paint.setColor(color);
             }
         }
 
         private void setInteractiveBackgroundColor(int color) {
             mInteractiveBackgroundColor = color;
-            updatePaintIfInteractive(mBackgroundPaint, color);
+            setInteractivePaintColor(mBackgroundPaint, color);
+            mInteractiveStaticLayer.invalidate();
             updateColors();
         }
 
         private void setInteractiveHourDigitsColor(int color) {
             mInteractiveHourDigitsColor = color;
-            updatePaintIfInteractive(mHourPaint, color);
+            setInteractivePaintColor(mHourPaint, color);
         }
 
         private void setInteractiveMinuteDigitsColor(int color) {
             mInteractiveMinuteDigitsColor = color;
-            updatePaintIfInteractive(mMinutePaint, color);
+            setInteractivePaintColor(mMinutePaint, color);
         }
 
         private void setInteractiveSecondDigitsColor(int color) {
             mInteractiveSecondDigitsColor = color;
-            updatePaintIfInteractive(mSecondPaint, color);
-        }
-
-        private String formatTwoDigitNumber(int hour) {
-            return String.format("%02d", hour);
-        }
-
-        private String getAmPmString(int amPm) {
-            return amPm == Calendar.AM ? mAmString : mPmString;
+            setInteractivePaintColor(mSecondPaint, color);
         }
 
         @Override
@@ -678,17 +1310,223 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             mCardBounds.set(rect);
         }
 
+        @Override
+        public void invalidate() {
+            // Skip the frame if it would look exactly like the one on screen.
+            if (mDrawnFrameState.isValid()) {
+                mCalendar.setTimeInMillis(System.currentTimeMillis());
+                captureFrameState(mNextFrameState);
+                if (mNextFrameState.matches(mDrawnFrameState)) {
+                    mSkippedFrameCount++;
+                    return;
+                }
+            }
+            super.invalidate();
+        }
+
+        @Override // FrameScheduler.Callback
+        public void onScheduledFrame(int reasons) {
+            if ((reasons & FrameScheduler.REASONS_BASE_LAYER) != 0) {
+                mBaseLayer.invalidate();
+            }
+            // A tick alone only moves the second hand.
+            if (reasons != FrameScheduler.REASON_TICK || !drawSecondHandFrame()) {
+                invalidate();
+            }
+        }
+
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-            mDate.setTime(now);
+            long startNanos = System.nanoTime();
+            long timeMs = System.currentTimeMillis();
+            boolean rasterizedSnowflake;
+            synchronized (mRenderLock) {
+                int snowflakeMisses = mSnowflakeRenderCache.getMissCount();
+                drawFrame(canvas, timeMs);
+                rasterizedSnowflake = mSnowflakeRenderCache.getMissCount() != snowflakeMisses;
+            }
+            long endNanos = System.nanoTime();
+            long frameNanos = endNanos - startNanos;
+            mFrameRateGovernor.onFrameDrawn(frameNanos);
+            mRasterNanos += frameNanos;
+            captureFrameState(mDrawnFrameState);
+            onInteractiveFrameDrawn(frameNanos, rasterizedSnowflake);
+            mFramePreparer.requestPrepare(getNextPrepareTime(timeMs));
+
+            if (mAmbient) {
+                if (mTimeTickNanos != 0) {
+                    if (mDrewPrerenderedFrame) {
+                        mPrerenderedWakeNanos += endNanos - mTimeTickNanos;
+                        mPrerenderedWakeCount++;
+                    } else {
+                        mFullWakeNanos += endNanos - mTimeTickNanos;
+                        mFullWakeCount++;
+                    }
+                    mTimeTickNanos = 0;
+                }
+                // The next ambient frame shows the next minute.
+                int millisOfMinute = mCalendar.get(Calendar.SECOND) * 1000
+                        + mCalendar.get(Calendar.MILLISECOND);
+                mAmbientPrerenderer.requestRender(
+                        timeMs + TimeUnit.MINUTES.toMillis(1) - millisOfMinute);
+                // The caches the atlas is rendered from are valid now.
+                loadAmbientAtlas();
+            }
+        }
+
+        /**
+         * Returns the signature of the ambient frames with the current settings, or 0 if they
+         * aren't worth an {@link AmbientAtlas}. Only low-bit ambient frames are drawn without
+         * anti-aliasing, in few enough colors for the atlas palette. Burn-in protected frames alone
+         * are anti-aliased and would lose their grays.
+         */
+        private int getAmbientAtlasSignature() {
+            if (!mLowBitAmbient || mWidth == 0 || mHeight == 0) {
+                return 0;
+            }
+            int signature = mMorphTimeline.getSignature();
+            signature = 31 * signature + mWidth;
+            signature = 31 * signature + mHeight;
+            signature = 31 * signature + (mLowBitAmbient ? 1 : 0);
+            signature = 31 * signature + (mBurnInProtection ? 1 : 0);
+            signature = 31 * signature + (mMute ? 1 : 0);
+            return signature == 0 ? 1 : signature;
+        }
+
+        /** Maps or generates the ambient atlas for the current settings, unless already done. */
+        private void loadAmbientAtlas() {
+            final int signature = getAmbientAtlasSignature();
+            if (signature == 0 || signature == mAmbientAtlasSignature) {
+                return;
+            }
+            mAmbientAtlasSignature = signature;
+            if (mAmbientAtlas != null) {
+                mAmbientAtlas.release();
+                mAmbientAtlas = null;
+            }
+            AmbientAtlas.loadAsync(SnowWatchFaceService.this, signature, mWidth, mHeight, this,
+                    mRenderLock, new AmbientAtlas.OnLoadedListener() {
+                        @Override
+                        public void onAmbientAtlasLoaded(AmbientAtlas atlas) {
+                            if (signature != mAmbientAtlasSignature) {
+                                return;
+                            }
+                            if (atlas == null || signature != getAmbientAtlasSignature()) {
+                                // Left ambient mode or changed settings while generating, carry
+                                // on from the frames rendered so far on the next ambient frame.
+                                mAmbientAtlasSignature = 0;
+                                return;
+                            }
+                            mAmbientAtlas = atlas;
+                        }
+                    });
+        }
+
+        /** Draws the ambient frame from the atlas, if there is one for the current settings. */
+        private boolean drawAmbientAtlas(Canvas canvas) {
+            return mAmbientAtlas != null
+                    && mAmbientAtlas.getSignature() == getAmbientAtlasSignature()
+                    && mAmbientAtlas.draw(canvas, getMinuteOfDay(), getCount());
+        }
 
-            // Draw the background.
-            drawBackground(canvas);
+        /**
+         * Sets {@code state} to the frame drawn at the time of {@link #mCalendar}. The second
+         * hand is quantized to whole seconds when ticking and to frames when sweeping.
+         */
+        private void captureFrameState(FrameState state) {
+            int secondStep;
+            if (mAmbient) {
+                secondStep = FrameState.NO_SECONDS;
+            } else if (mSweepPacer.isRunning()) {
+                int millisOfMinute = mCalendar.get(Calendar.SECOND) * 1000
+                        + mCalendar.get(Calendar.MILLISECOND);
+                secondStep = millisOfMinute * mSweepPacer.getFps() / 1000;
+            } else {
+                secondStep = mCalendar.get(Calendar.SECOND);
+            }
+            state.setTime(getMinuteOfDay(), secondStep);
+            state.setCount(getCount());
 
-            // Draw tickmarks
-            drawTicks(canvas);
+            int flags = 0;
+            if (mAmbient) {
+                flags |= FrameState.FLAG_AMBIENT;
+            }
+            if (mLowBitAmbient) {
+                flags |= FrameState.FLAG_LOW_BIT_AMBIENT;
+            }
+            if (mBurnInProtection) {
+                flags |= FrameState.FLAG_BURN_IN_PROTECTION;
+            }
+            if (mMute) {
+                flags |= FrameState.FLAG_MUTE;
+            }
+            if (mTimeTextCache.is24Hour()) {
+                flags |= FrameState.FLAG_24_HOUR;
+            }
+            state.setFlags(flags);
+
+            state.setColor(0, mInteractiveBackgroundColor);
+            state.setColor(1, mInteractiveHourDigitsColor);
+            state.setColor(2, mInteractiveMinuteDigitsColor);
+            state.setColor(3, mInteractiveSecondDigitsColor);
+            state.setColor(4, mWatchHandColor);
+            state.setColor(5, mWatchRestHandColor);
+            state.setColor(6, mWatchHandShadowColor);
+        }
+
+        private int getSkippedFramePercent() {
+            int invalidations = mFullFrameCount + mDirtyFrameCount + mSkippedFrameCount;
+            return invalidations == 0 ? 0 : mSkippedFrameCount * 100 / invalidations;
+        }
+
+        /**
+         * Draws the watch face for {@code timeMs}. This runs for every frame and must not allocate,
+         * which {@code DrawPathAllocationTest} checks.
+         */
+        void drawFrame(Canvas canvas, long timeMs) {
+            mCalendar.setTimeInMillis(timeMs);
+            mDrewPrerenderedFrame = mAmbient && (drawAmbientAtlas(canvas)
+                    || mAmbientPrerenderer.draw(canvas, getMinuteOfDay(), getCount()));
+            if (mDrewPrerenderedFrame) {
+                mFullFrameCount++;
+                mFullFramePixels += (long) mWidth * mHeight;
+                return;
+            }
+            final boolean shifted = mAmbient
+                    && mAmbientRenderer.beginShift(canvas, getMinuteOfDay());
+            mTimeTextCache.update();
+            mPreparedFrame = mFramePreparer.acquire(getMinuteOfDay(), getCount(), mCenterX,
+                    mCenterY, mHourHandRadius);
+
+            // Everything below the second hand goes through the base layer, so that the frames
+            // until the next minute or count change can repaint just the second hand.
+            if (!mAmbient && isBaseLayerCurrent()) {
+                mBaseLayer.draw(canvas, null);
+            } else {
+                Canvas baseCanvas = mAmbient ? null : mBaseLayer.beginRecording();
+                if (baseCanvas != null) {
+                    drawBaseLayer(baseCanvas);
+                    mBaseLayer.endRecording();
+                    mBaseMinute = getMinuteOfDay();
+                    mBaseCount = mCount;
+                    mBaseLayer.draw(canvas, null);
+                } else {
+                    drawBaseLayer(canvas);
+                }
+            }
+            drawTopLayer(canvas);
+            if (shifted) {
+                canvas.restore();
+            }
+
+            mFullFrameCount++;
+            mFullFramePixels += (long) mWidth * mHeight;
+        }
+
+        /** Draws everything below the second hand, which only changes with the minute or count. */
+        private void drawBaseLayer(Canvas canvas) {
+            // Draw the background and tickmarks.
+            drawStaticLayer(canvas);
 
             // Draw digital time
 //            drawDigital(canvas);
@@ -700,23 +1538,179 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
 //            drawSnowflakeHands(canvas);
 
             // Draw analog time
-            drawAnalogHands(canvas);
+            drawHourAndMinuteHands(canvas);
+        }
+
+        /** Draws the second hand and everything on top of it. */
+        private void drawTopLayer(Canvas canvas) {
+            drawSecondHandAndCenterCircle(canvas);
 
             // Draw center text
-            SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm",java.util.Locale.getDefault());
-            String time = timeFormat.format(mCalendar.getTime());
-            drawCenterText(canvas, time);
-//            drawCenterText(canvas,Integer.toString(mCount));
+            if (mPreparedFrame != null) {
+                drawCenterText(canvas, mPreparedFrame.centerText, mPreparedFrame.centerLength);
+            } else {
+                drawCenterText(canvas, mTimeTextCache.getCenterText(),
+                        mTimeTextCache.getCenterLength());
+            }
 
             // Draw background for peek cards
 //            drawCardBackground(canvas);
         }
 
+        /**
+         * Repaints only the region covered by the second hand in its last and current position,
+         * if nothing below it changed since the last full frame.
+         *
+         * @return whether the frame was drawn, otherwise a full frame is needed
+         */
+        private boolean drawSecondHandFrame() {
+            if (mAmbient || !isVisible()
+                    || !mSecondHandSprite.isValid() || !mCenterCircleSprite.isValid()) {
+                return false;
+            }
+            mCalendar.setTimeInMillis(System.currentTimeMillis());
+            if (!isBaseLayerCurrent()) {
+                return false;
+            }
+
+            mSecondHandSprite.getBounds(mCenterX, mCenterY, getSecondsRotation(), mDirtyBounds);
+            mDirtyBounds.union(mLastSecondHandBounds);
+            mDirtyBounds.roundOut(mDirtyRect);
+            // The center circle and text are redrawn on top within the same region, the parts
+            // outside it are unchanged.
+            SurfaceHolder holder = getSurfaceHolder();
+            Canvas canvas = holder.lockCanvas(mDirtyRect);
+            if (canvas == null) {
+                return false;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                synchronized (mRenderLock) {
+                    mTimeTextCache.update();
+                    mBaseLayer.draw(canvas, null);
+                    drawTopLayer(canvas);
+                }
+            } finally {
+                holder.unlockCanvasAndPost(canvas);
+            }
+            long frameNanos = System.nanoTime() - startNanos;
+            mFrameRateGovernor.onFrameDrawn(frameNanos);
+            captureFrameState(mDrawnFrameState);
+            // The snowflake is part of the base layer, which is current.
+            onInteractiveFrameDrawn(frameNanos, false);
+
+            mDirtyFrameCount++;
+            mDirtyFramePixels += (long) mDirtyRect.width() * mDirtyRect.height();
+            return true;
+        }
+
+        @Override // SweepPacer.Callback
+        public void onSweepFrame() {
+            if (!mFrameRateGovernor.allowsSweep(SystemClock.uptimeMillis())) {
+                // Something slowed the ticks down since the sweep started, tick instead.
+                mSweepPacer.stop();
+                updateTimer();
+                return;
+            }
+            if (!drawSecondHandFrame()) {
+                invalidate();
+            }
+        }
+
+        @Override // SweepPacer.Callback
+        public void onSweepFallback() {
+            updateTimer();
+        }
+
+        @Override // AmbientPrerenderer.Callback
+        public int onRenderAmbientFrame(Canvas canvas, Calendar calendar) {
+            // Runs on the pre-render thread with the render lock held. Only draw from caches that
+            // the last ambient frame left valid, recording them here could race with the main
+            // thread changing their paints.
+            final AmbientRenderer renderer = mAmbientRenderer;
+            if (!mAmbient || !mAmbientStaticLayer.isValid() || !renderer.hasSprites()) {
+                return AmbientPrerenderer.NOT_RENDERED;
+            }
+            final int count = getCount(calendar);
+            final int minute = calendar.get(Calendar.MINUTE);
+            final float minutesRotation = minute * 6f;
+            final float hoursRotation = (calendar.get(Calendar.HOUR) * 30) + minute / 2f;
+            final Paint spritePaint = getSpritePaint();
+
+            final boolean shifted = renderer.beginShift(canvas,
+                    calendar.get(Calendar.HOUR_OF_DAY) * 60 + minute);
+            mAmbientStaticLayer.draw(canvas, null);
+            mSnowflakeRenderCache.draw(canvas, count, mMorphSource.findStage(count),
+                    renderer.getSnowflakePaint(), spritePaint, hoursRotation, mCenterX, mCenterY,
+                    this);
+            renderer.getHourHandSprite().draw(canvas, mCenterX, mCenterY, hoursRotation,
+                    spritePaint);
+            renderer.getMinuteHandSprite().draw(canvas, mCenterX, mCenterY, minutesRotation,
+                    spritePaint);
+            renderer.getCenterCircleSprite().draw(canvas, mCenterX, mCenterY, 0, spritePaint);
+            drawCenterText(canvas, mAmbientCenterText,
+                    TimeTextCache.formatCenterText(mAmbientCenterText, calendar,
+                            mTimeTextCache.getZeroDigit()));
+            if (shifted) {
+                canvas.restore();
+            }
+            return count;
+        }
+
+        /**
+         * Returns whether {@link #mBaseLayer} holds the minute and count of {@link #mCalendar}.
+         */
+        private boolean isBaseLayerCurrent() {
+            return mBaseLayer.isValid() && getMinuteOfDay() == mBaseMinute
+                    && getCount() == mBaseCount;
+        }
+
+        private int getMinuteOfDay() {
+            return mCalendar.get(Calendar.HOUR_OF_DAY) * 60 + mCalendar.get(Calendar.MINUTE);
+        }
+
+        /**
+         * Draws the background and tick marks from the cached layer of the current mode,
+         * recording the layer first if it has been invalidated. Until the startup is complete,
+         * the snapshot of the previous process is drawn instead.
+         */
+        private void drawStaticLayer(Canvas canvas) {
+            if (!mStartupComplete && mFrameSnapshot.draw(canvas, mAmbient, mWidth, mHeight)) {
+                return;
+            }
+            CachedLayer layer = mAmbient ? mAmbientStaticLayer : mInteractiveStaticLayer;
+            if (!layer.isValid()) {
+                Canvas layerCanvas = layer.beginRecording();
+                if (layerCanvas == null) {
+                    // No surface size yet, draw directly.
+                    drawBackground(canvas);
+                    drawTicks(canvas);
+                    return;
+                }
+                drawBackground(layerCanvas);
+                drawTicks(layerCanvas);
+                layer.endRecording();
+                if (mStartupComplete) {
+                    // The snapshot for the next process, saved after the frame.
+                    if (mAmbient) {
+                        mAmbientSnapshotPending = true;
+                    } else {
+                        mInteractiveSnapshotPending = true;
+                    }
+                    mUpdateTimeHandler.post(mSaveSnapshotsRunnable);
+                }
+            }
+            layer.draw(canvas, null);
+        }
+
         private void drawBackground(Canvas canvas) {
             if (mAmbient && (mLowBitAmbient || mBurnInProtection)) {
                 canvas.drawColor(Color.BLACK);
             } else if (mBackgroundBitmap == null) {
                 canvas.drawColor(mInteractiveBackgroundColor);
+            } else if (mAmbient && mGrayBackgroundBitmap == null) {
+                // Still loading.
+                canvas.drawColor(Color.BLACK);
             } else if (mAmbient) {
                 canvas.drawBitmap(mGrayBackgroundBitmap, 0, 0, mBackgroundPaint);
             } else {
@@ -739,240 +1733,145 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
                 float outerX = (float) Math.sin(tickRot) * outerTickRadius;
                 float outerY = (float) -Math.cos(tickRot) * outerTickRadius;
                 canvas.drawLine(mCenterX + innerX, mCenterY + innerY,
-                        mCenterX + outerX, mCenterY + outerY, mSnowflakePaint);
+                        mCenterX + outerX, mCenterY + outerY, getSnowflakePaint());
             }
         }
 
         private void drawCardBackground(Canvas canvas) {
             if (mAmbient) {
-                canvas.drawRect(mCardBounds, mBackgroundPaint);
+                canvas.drawRect(mCardBounds, mAmbientRenderer.getBackgroundPaint());
             }
         }
 
-        private void drawCenterText(Canvas canvas, String text) {
-            // Test draw text
-            Paint textPaint = new Paint(mHandPaint);
-            float textSize = 20f;
-            textPaint.setTextSize(textSize);
-            textPaint.setStrokeWidth(STROKE_WIDTH / 4);
-            textPaint.setTextAlign(Paint.Align.CENTER);
-            canvas.drawText(text, mCenterX, mCenterY+textSize/3, textPaint);
+        private void drawCenterText(Canvas canvas, char[] text, int length) {
+            getGlyphAtlas().drawText(canvas, GLYPHS_CENTER, text, 0, length, mCenterX,
+                    mCenterY + CENTER_TEXT_SIZE / 3, Paint.Align.CENTER);
         }
 
-        private void drawMorphSnowflake(Canvas canvas) {
+        private GlyphAtlas getGlyphAtlas() {
+            return mAmbient ? mAmbientGlyphAtlas : mInteractiveGlyphAtlas;
+        }
+
+        /** Returns the paint of the snowflake and tick marks in the current mode. */
+        private Paint getSnowflakePaint() {
+            return mAmbient ? mAmbientRenderer.getSnowflakePaint() : mSnowflakePaint;
+        }
+
+        /** Returns the count that the morph snowflake shows at the time of {@link #mCalendar}. */
+        private int getCount() {
+            return getCount(mCalendar);
+        }
+
+        /** Returns the count that the morph snowflake shows at the time of {@code calendar}. */
+        private int getCount(Calendar calendar) {
              /*
              * These calculations reflect the rotation in degrees per unit of time, e.g.,
              * 360 / 60 = 6 and 360 / 12 = 30.
              */
             final float seconds =
-                    (mCalendar.get(Calendar.SECOND) + mCalendar.get(Calendar.MILLISECOND) / 1000f);
-            final float minutes = mCalendar.get(Calendar.MINUTE);
-            final float hours = mCalendar.get(Calendar.HOUR_OF_DAY);
+                    (calendar.get(Calendar.SECOND) + calendar.get(Calendar.MILLISECOND) / 1000f);
+            final float minutes = calendar.get(Calendar.MINUTE);
+            final float hours = calendar.get(Calendar.HOUR_OF_DAY);
             final int time = (int) ((hours * 60 * 60) + (minutes * 60) + seconds);
             final int timeCount = time / 14;
             final int count = timeCount;
-            mCount = count;
-
-            final float hourHandOffset = mCalendar.get(Calendar.MINUTE) / 2f;
-            final float hoursRotation = (mCalendar.get(Calendar.HOUR) * 30) + hourHandOffset;
-
-            // save the canvas state before we begin to rotate it
-            canvas.save();
+            return count;
+        }
 
-            // Align with the hour hand
-            canvas.rotate(hoursRotation, mCenterX, mCenterY);
+        private void drawMorphSnowflake(Canvas canvas) {
+            final int count = getCount();
+            mCount = count;
 
-            float maxInnerRadius = mHourHandRadius;
-            float maxInnerStubLength = mHourHandRadius / 10;
-
-            float[] threshold = new float[]{-500, 1000, 2000, 3000, 5000, 8000, 10000};
-
-            if (count < threshold[1]) {
-                // Draw 6 pointed snowflake that grows as count increases
-                drawSnowflake(
-                        canvas,
-                        6,
-                        CENTER_GAP_AND_CIRCLE_RADIUS,
-                        ((count - threshold[0]) / (threshold[1] - threshold[0])) * maxInnerRadius,
-                        2,
-                        ((count - threshold[0]) / (threshold[1] - threshold[0])) * maxInnerStubLength,
-                        0f);
-            } else if (count < threshold[2]) {
-                // Draw 6 pointed snowflake that stays the same
-                drawSnowflake(
-                        canvas,
-                        6,
-                        CENTER_GAP_AND_CIRCLE_RADIUS,
-                        maxInnerRadius,
-                        2,
-                        maxInnerStubLength,
-                        0f);
-
-                // Draw 6 pointed snowflake that grows as count increases
-                drawSnowflake(
-                        canvas,
-                        6,
-                        CENTER_GAP_AND_CIRCLE_RADIUS,
-                        ((count - threshold[1]) / (threshold[2] - threshold[1])) * maxInnerRadius*3/2,
-                        3,
-                        ((count - threshold[1]) / (threshold[2] - threshold[1])) * maxInnerStubLength/2,
-                        30f);
-            } else if (count < threshold[3]) {
-                // Draw 6 pointed snowflake that shrinks to nothing as count increases
-                drawSnowflake(
-                        canvas,
-                        6,
-                        CENTER_GAP_AND_CIRCLE_RADIUS,
-                        maxInnerRadius - ((count - threshold[2]) / (threshold[3] - threshold[2])) * maxInnerRadius,
-                        2,
-                        maxInnerStubLength - ((count - threshold[2]) / (threshold[3] - threshold[2])) * maxInnerStubLength,
-                        0f);
-
-                // Draw 6 pointed snowflake that rotates left as count increases
-                drawSnowflake(
-                        canvas,
-                        6,
-                        CENTER_GAP_AND_CIRCLE_RADIUS,
-                        maxInnerRadius*3/2,
-                        3,
-                        maxInnerStubLength/2,
-                        30f - ((count - threshold[2]) / (threshold[3] - threshold[2]))* 15f);
-
-                // Draw 6 pointed snowflake that shrinks and rotates right as count increases
-                drawSnowflake(
-                        canvas,
-                        6,
-                        CENTER_GAP_AND_CIRCLE_RADIUS,
-                        maxInnerRadius*3/2 - ((count - threshold[2]) / (threshold[3] - threshold[2])) * maxInnerRadius*3/4,
-                        3,
-                        maxInnerStubLength/2 - ((count - threshold[2]) / (threshold[3] - threshold[2])) * maxInnerStubLength/4,
-                        30f + ((count - threshold[2]) / (threshold[3] - threshold[2]))* 15f);
-            } else if (count < threshold[4]) {
-                // Draw 6 pointed large snowflake that stays the same size
-                drawSnowflake(
-                        canvas,
-                        6,
-                        CENTER_GAP_AND_CIRCLE_RADIUS,
-                        maxInnerRadius*3/2,
-                        3 + count % 3,
-                        maxInnerStubLength/2,
-                        15f);
-
-                // Draw 6 pointed small snowflake that stays the same size
-                drawSnowflake(
-                        canvas,
-                        6,
-                        CENTER_GAP_AND_CIRCLE_RADIUS,
-                        maxInnerRadius*3/4,
-                        3,
-                        maxInnerStubLength/4,
-                        45f);
-
-                // Draw mini snowflakes that grow and move outward in the spaces in-between
-                drawMiniSnowflake(
-                        canvas,
-                        6,
-                        maxInnerRadius + ((count - threshold[3]) / (threshold[4] - threshold[3])) * maxInnerRadius / 4,
-                        8,
-                        ((count - threshold[3]) / (threshold[4] - threshold[3])) * maxInnerStubLength,
-                        45f);
+            final FramePreparer.Frame frame = mPreparedFrame;
+            final int stage;
+            final float hoursRotation;
+            if (frame != null) {
+                stage = frame.stage;
+                hoursRotation = frame.hoursRotation;
             } else {
-                // Draw 6 pointed large snowflake that stays the same size
-                drawSnowflake(
-                        canvas,
-                        6,
-                        CENTER_GAP_AND_CIRCLE_RADIUS,
-                        maxInnerRadius * 3 / 2,
-                        3 + count % 3,
-                        maxInnerStubLength / 2,
-                        15f);
-
-                // Draw 6 pointed small snowflake that stays the same size
-                drawSnowflake(
-                        canvas,
-                        6,
-                        CENTER_GAP_AND_CIRCLE_RADIUS,
-                        maxInnerRadius * 3 / 4,
-                        3 - count % 2,
-                        maxInnerStubLength / 4,
-                        45f);
-
-                // Draw mini snowflakes that grow and move outward in the spaces in-between
-                drawMiniSnowflake(
-                        canvas,
-                        6,
-                        maxInnerRadius * 5 / 4,
-                        8,
-                        maxInnerStubLength + (count % 8) * maxInnerStubLength / 8,
-                        45f);
+                stage = mMorphSource.findStage(count);
+                final float hourHandOffset = mCalendar.get(Calendar.MINUTE) / 2f;
+                hoursRotation = (mCalendar.get(Calendar.HOUR) * 30) + hourHandOffset;
             }
 
-            // restore the canvas' original orientation.
-            canvas.restore();
-
+            // Align with the hour hand
+            mSnowflakeRenderCache.draw(canvas, count, stage, getSnowflakePaint(),
+                    getSpritePaint(), hoursRotation, mCenterX, mCenterY, this);
         }
 
-        private void drawSnowflake(Canvas canvas, int points, float innerRadius, float outerRadius, int stubs, float stubLength, float angleOffset) {
-            // Rotate to offset position
-            canvas.rotate(angleOffset, mCenterX, mCenterY);
-
-            // Prepare the inner snowflake
-            for (int i = 0; i < points; i++) {
-
-                float length = outerRadius - innerRadius;
-
-                for (int j = 0; j < stubs; j++) {
-                    float yTickStart = mCenterY - innerRadius - (length / (stubs + 1)) * (j + 1);
-
-                    canvas.drawLine(mCenterX,
-                            yTickStart,
-                            mCenterX - stubLength * (stubs - j),
-                            yTickStart - stubLength * (stubs - j),
-                            mSnowflakePaint);
-                    canvas.drawLine(mCenterX,
-                            yTickStart,
-                            mCenterX + stubLength * (stubs - j),
-                            yTickStart - stubLength * (stubs - j),
-                            mSnowflakePaint);
-                }
-
-                canvas.drawLine(
-                        mCenterX,
-                        mCenterY - innerRadius,
-                        mCenterX,
-                        mCenterY - outerRadius,
-                        mSnowflakePaint);
-
-                canvas.rotate(360 / points, mCenterX, mCenterY);
+        @Override // SnowflakeRenderCache.FlakeBuilder
+        public void onBuildFixedFlakes(SnowflakeGeometry geometry, int count, int stage) {
+            if (hasPreparedFlakes(geometry, count, stage)) {
+                geometry.addAll(mPreparedFrame.fixedFlakes);
+                return;
             }
-
-            // Rotate back to starting position
-            canvas.rotate(-angleOffset, mCenterX, mCenterY);
+            mMorphSource.addFlakes(geometry, count, stage, MorphSource.FLAKES_FIXED,
+                    mHourHandRadius, mHourHandRadius / 10, CENTER_GAP_AND_CIRCLE_RADIUS);
         }
 
-        private void drawMiniSnowflake(Canvas canvas, int points, float radius, int stubs, float stubLength, float angleOffset) {
-            // Rotate to offset position
-            canvas.rotate(angleOffset, mCenterX, mCenterY);
-
-            // Prepare the inner snowflake
-            for (int i = 0; i < points; i++) {
-
-                for (int j = 0; j < stubs; j++) {
+        @Override // SnowflakeRenderCache.FlakeBuilder
+        public void onBuildMorphFlakes(SnowflakeGeometry geometry, int count, int stage) {
+            if (hasPreparedFlakes(geometry, count, stage)) {
+                geometry.addAll(mPreparedFrame.morphFlakes);
+                return;
+            }
+            mMorphSource.addFlakes(geometry, count, stage, MorphSource.FLAKES_MORPH,
+                    mHourHandRadius, mHourHandRadius / 10, CENTER_GAP_AND_CIRCLE_RADIUS);
+        }
 
-                    float yCenter = mCenterY - radius;
+        /** Returns whether the prepared frame holds the flakes to build into {@code geometry}. */
+        private boolean hasPreparedFlakes(SnowflakeGeometry geometry, int count, int stage) {
+            final FramePreparer.Frame frame = mPreparedFrame;
+            return frame != null && frame.count == count && frame.stage == stage
+                    && geometry.getRotation() == 0
+                    && frame.fixedFlakes.getMaxMiniStubs() == geometry.getMaxMiniStubs();
+        }
 
-                    canvas.drawLine(mCenterX,
-                            yCenter,
-                            mCenterX,
-                            yCenter - stubLength,
-                            mSnowflakePaint);
-                    canvas.rotate(360/stubs,mCenterX,yCenter);
-                }
-                canvas.rotate(360 / points, mCenterX, mCenterY);
-            }
+        @Override // FramePreparer.Callback
+        public void onPrepareFrame(FramePreparer.Frame frame, Calendar calendar) {
+            // Runs on the preparer thread. The fields read here are only written on the main
+            // thread before a frame is requested, and the request message publishes them.
+            final MorphSource source = mMorphSource;
+            final float radius = mHourHandRadius;
+            final int count = getCount(calendar);
+            final int stage = source.findStage(count);
+            final int minute = calendar.get(Calendar.MINUTE);
+
+            frame.minuteOfDay = calendar.get(Calendar.HOUR_OF_DAY) * 60 + minute;
+            frame.count = count;
+            frame.stage = stage;
+            frame.centerX = mCenterX;
+            frame.centerY = mCenterY;
+            frame.radius = radius;
+            frame.minutesRotation = minute * 6f;
+            frame.hoursRotation = (calendar.get(Calendar.HOUR) * 30) + minute / 2f;
+
+            frame.fixedFlakes.setCenter(frame.centerX, frame.centerY);
+            frame.fixedFlakes.setMaxMiniStubs(mMaxMiniStubs);
+            frame.fixedFlakes.reset();
+            source.addFlakes(frame.fixedFlakes, count, stage, MorphSource.FLAKES_FIXED, radius,
+                    radius / 10, CENTER_GAP_AND_CIRCLE_RADIUS);
+            frame.morphFlakes.setCenter(frame.centerX, frame.centerY);
+            frame.morphFlakes.setMaxMiniStubs(mMaxMiniStubs);
+            frame.morphFlakes.reset();
+            source.addFlakes(frame.morphFlakes, count, stage, MorphSource.FLAKES_MORPH, radius,
+                    radius / 10, CENTER_GAP_AND_CIRCLE_RADIUS);
+
+            frame.centerLength = TimeTextCache.formatCenterText(frame.centerText, calendar,
+                    mTimeTextCache.getZeroDigit());
+        }
 
-            // Rotate back to starting position
-            canvas.rotate(-angleOffset, mCenterX, mCenterY);
+        /**
+         * Returns the time of the next minute or count change after {@code timeMs}, the time of
+         * {@link #mCalendar}.
+         */
+        private long getNextPrepareTime(long timeMs) {
+            int millis = mCalendar.get(Calendar.MILLISECOND);
+            int millisOfMinute = mCalendar.get(Calendar.SECOND) * 1000 + millis;
+            int secondOfDay = getMinuteOfDay() * 60 + mCalendar.get(Calendar.SECOND);
+            long untilMinute = TimeUnit.MINUTES.toMillis(1) - millisOfMinute;
+            long untilCount = TimeUnit.SECONDS.toMillis(14 - secondOfDay % 14) - millis;
+            return timeMs + Math.min(untilMinute, untilCount);
         }
 
         private void drawSnowflakeHands(Canvas canvas) {
@@ -1072,63 +1971,81 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             canvas.restore();
         }
 
-        private void drawAnalogHands(Canvas canvas) {
+        /**
+         * Returns the rotation of the second hand in degrees, 360 / 60 = 6 per second.
+         */
+        private float getSecondsRotation() {
+            final float seconds =
+                    (mCalendar.get(Calendar.SECOND) + mCalendar.get(Calendar.MILLISECOND) / 1000f);
+            return seconds * 6f;
+        }
+
+        private void drawHourAndMinuteHands(Canvas canvas) {
             /*
              * These calculations reflect the rotation in degrees per unit of time, e.g.,
              * 360 / 60 = 6 and 360 / 12 = 30.
              */
-            final float seconds =
-                    (mCalendar.get(Calendar.SECOND) + mCalendar.get(Calendar.MILLISECOND) / 1000f);
-            final float secondsRotation = seconds * 6f;
-
-            final float minutesRotation = mCalendar.get(Calendar.MINUTE) * 6f;
-
-            final float hourHandOffset = mCalendar.get(Calendar.MINUTE) / 2f;
-            final float hoursRotation = (mCalendar.get(Calendar.HOUR) * 30) + hourHandOffset;
-
-            // save the canvas state before we begin to rotate it
-            canvas.save();
-
-            /* Prepare the hour snowflake*/
-            canvas.rotate(hoursRotation, mCenterX, mCenterY);
-
-            canvas.drawLine(
-                mCenterX,
-                mCenterY - CENTER_GAP_AND_CIRCLE_RADIUS,
-                mCenterX,
-                mCenterY - mHourHandRadius,
-                mHourHandPaint);
-
-            /* Prepare the minute snowflake */
-            canvas.rotate(minutesRotation - hoursRotation, mCenterX, mCenterY);
+            final float minutesRotation;
+            final float hoursRotation;
+            if (mPreparedFrame != null) {
+                minutesRotation = mPreparedFrame.minutesRotation;
+                hoursRotation = mPreparedFrame.hoursRotation;
+            } else {
+                minutesRotation = mCalendar.get(Calendar.MINUTE) * 6f;
+                final float hourHandOffset = mCalendar.get(Calendar.MINUTE) / 2f;
+                hoursRotation = (mCalendar.get(Calendar.HOUR) * 30) + hourHandOffset;
+            }
 
-            float minuteEndY = mCenterY - mMinuteHandLength;
+            ensureHandSprites();
+            final Paint spritePaint = getSpritePaint();
+            final HandSprite hourHandSprite;
+            final HandSprite minuteHandSprite;
+            if (mAmbient) {
+                hourHandSprite = mAmbientRenderer.getHourHandSprite();
+                minuteHandSprite = mAmbientRenderer.getMinuteHandSprite();
+            } else {
+                hourHandSprite = mHourHandSprite;
+                minuteHandSprite = mMinuteHandSprite;
+            }
+            hourHandSprite.draw(canvas, mCenterX, mCenterY, hoursRotation, spritePaint);
+            minuteHandSprite.draw(canvas, mCenterX, mCenterY, minutesRotation, spritePaint);
+        }
 
-            canvas.drawLine(
-                    mCenterX,
-                    mCenterY - CENTER_GAP_AND_CIRCLE_RADIUS,
-                    mCenterX,
-                    minuteEndY,
-                    mHandPaint);
+        private void drawSecondHandAndCenterCircle(Canvas canvas) {
+            ensureHandSprites();
+            final Paint spritePaint = getSpritePaint();
 
             /*
              * Make sure the "seconds" hand is drawn only when we are in interactive mode.
              * Otherwise we only update the watch face once a minute.
              */
             if (!mAmbient) {
-                canvas.rotate(secondsRotation - minutesRotation, mCenterX, mCenterY);
-                canvas.drawLine(mCenterX,
-                        mCenterY - CENTER_GAP_AND_CIRCLE_RADIUS,
-                        mCenterX,
-                        mCenterY - mSecondHandLength,
-                        mHandPaint);
+                final float secondsRotation = getSecondsRotation();
+                mSecondHandSprite.draw(canvas, mCenterX, mCenterY, secondsRotation, spritePaint);
+                mSecondHandSprite.getBounds(mCenterX, mCenterY, secondsRotation,
+                        mLastSecondHandBounds);
             }
 
             // Draw center circle
-            canvas.drawCircle(mCenterX, mCenterY, CENTER_GAP_AND_CIRCLE_RADIUS, mHandPaint);
+            final HandSprite centerCircleSprite = mAmbient
+                    ? mAmbientRenderer.getCenterCircleSprite() : mCenterCircleSprite;
+            centerCircleSprite.draw(canvas, mCenterX, mCenterY, 0, spritePaint);
+        }
 
-            // restore the canvas' original orientation.
-            canvas.restore();
+        /** Records the hand sprites of the current mode unless they are still valid. */
+        private void ensureHandSprites() {
+            if (mAmbient) {
+                mAmbientRenderer.ensureSprites(CENTER_GAP_AND_CIRCLE_RADIUS, mHourHandRadius,
+                        mMinuteHandLength);
+            } else if (!mHourHandSprite.isValid() || !mMinuteHandSprite.isValid()
+                    || !mSecondHandSprite.isValid() || !mCenterCircleSprite.isValid()) {
+                recordHandSprites();
+            }
+        }
+
+        /** Low-bit ambient can only show pure colors, so don't filter the rotated bitmaps then. */
+        private Paint getSpritePaint() {
+            return mAmbient && mLowBitAmbient ? null : mSpritePaint;
         }
 
         /**
@@ -1136,7 +2053,8 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
          * @param canvas
          */
         private void drawDigital(Canvas canvas) {
-            boolean is24Hour = DateFormat.is24HourFormat(SnowWatchFaceService.this);
+            final TimeTextCache timeText = mTimeTextCache;
+            final GlyphAtlas glyphs = getGlyphAtlas();
 
             // Show colons for the first half of each second so the colons blink on when the time
             // updates.
@@ -1145,63 +2063,57 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
 
             // Draw the hours.
             float x = mXOffset;
-            String hourString;
-            if (is24Hour) {
-                hourString = formatTwoDigitNumber(mCalendar.get(Calendar.HOUR_OF_DAY));
-            } else {
-                int hour = mCalendar.get(Calendar.HOUR);
-                if (hour == 0) {
-                    hour = 12;
-                }
-                hourString = String.valueOf(hour);
-            }
-            canvas.drawText(hourString, x, mYOffset, mHourPaint);
-            x += mHourPaint.measureText(hourString);
+            glyphs.drawText(canvas, GLYPHS_HOUR, timeText.getHourText(), 0,
+                    timeText.getHourLength(), x, mYOffset, Paint.Align.LEFT);
+            x += timeText.getHourWidth();
 
             // In ambient and mute modes, always draw the first colon. Otherwise, draw the
             // first colon for the first half of each second.
             if (isInAmbientMode() || mMute || mShouldDrawColons) {
-                canvas.drawText(COLON_STRING, x, mYOffset, mColonPaint);
+                glyphs.drawChar(canvas, GLYPHS_COLON, ':', x, mYOffset);
             }
             x += mColonWidth;
 
             // Draw the minutes.
-            String minuteString = formatTwoDigitNumber(mCalendar.get(Calendar.MINUTE));
-            canvas.drawText(minuteString, x, mYOffset, mMinutePaint);
-            x += mMinutePaint.measureText(minuteString);
+            glyphs.drawText(canvas, GLYPHS_MINUTE, timeText.getMinuteText(), 0,
+                    timeText.getMinuteLength(), x, mYOffset, Paint.Align.LEFT);
+            x += timeText.getMinuteWidth();
 
             // In unmuted interactive mode, draw a second blinking colon followed by the seconds.
             // Otherwise, if we're in 12-hour mode, draw AM/PM
             if (!isInAmbientMode() && !mMute) {
                 if (mShouldDrawColons) {
-                    canvas.drawText(COLON_STRING, x, mYOffset, mColonPaint);
+                    glyphs.drawChar(canvas, GLYPHS_COLON, ':', x, mYOffset);
                 }
                 x += mColonWidth;
-                canvas.drawText(formatTwoDigitNumber(
-                        mCalendar.get(Calendar.SECOND)), x, mYOffset, mSecondPaint);
-            } else if (!is24Hour) {
+                final char[] text = mDigitalText;
+                int length = SnowWatchFaceUtil.formatTwoDigitNumber(text, 0,
+                        mCalendar.get(Calendar.SECOND), timeText.getZeroDigit());
+                glyphs.drawText(canvas, GLYPHS_SECOND, text, 0, length, x, mYOffset,
+                        Paint.Align.LEFT);
+            } else if (!timeText.is24Hour()) {
                 x += mColonWidth;
-                canvas.drawText(getAmPmString(
-                        mCalendar.get(Calendar.AM_PM)), x, mYOffset, mAmPmPaint);
+                glyphs.drawString(canvas, GLYPHS_AM_PM, mCalendar.get(Calendar.AM_PM), x,
+                        mYOffset);
             }
 
             // Only render the day of week and date if there is no peek card, so they do not bleed
             // into each other in ambient mode.
             if (getPeekCardPosition().isEmpty()) {
+                final Paint datePaint = mAmbient ? mAmbientDatePaint : mDatePaint;
                 // Day of week
-                canvas.drawText(
-                        mDayOfWeekFormat.format(mDate),
-                        mXOffset, mYOffset + mLineHeight, mDatePaint);
+                canvas.drawText(timeText.getDayOfWeekText(), 0, timeText.getDayOfWeekLength(),
+                        mXOffset, mYOffset + mLineHeight, datePaint);
                 // Date
-                canvas.drawText(
-                        mDateFormat.format(mDate),
-                        mXOffset, mYOffset + mLineHeight * 2, mDatePaint);
+                canvas.drawText(timeText.getDateText(), 0, timeText.getDateLength(),
+                        mXOffset, mYOffset + mLineHeight * 2, datePaint);
             }
         }
 
         /**
-         * Starts the {@link #mUpdateTimeHandler} timer if it should be running and isn't currently
-         * or stops it if it shouldn't be running but currently is.
+         * Starts the {@link #mUpdateTimeHandler} timer, or the {@link #mSweepPacer} when the sweep
+         * is enabled and allowed, if it should be running and isn't currently or stops it if it
+         * shouldn't be running but currently is.
          */
         private void updateTimer() {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
@@ -1209,7 +2121,15 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             }
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
             if (shouldTimerBeRunning()) {
-                mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
+                if (mSweepPacer.canRun()
+                        && mFrameRateGovernor.allowsSweep(SystemClock.uptimeMillis())) {
+                    mSweepPacer.start();
+                } else {
+                    mSweepPacer.stop();
+                    mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
+                }
+            } else {
+                mSweepPacer.stop();
             }
         }
 
@@ -1246,6 +2166,9 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
                     SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_MINUTE_DIGITS);
             addIntKeyIfMissing(config, SnowWatchFaceUtil.KEY_SECONDS_COLOR,
                     SnowWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_SECOND_DIGITS);
+            addIntKeyIfMissing(config, SnowWatchFaceUtil.KEY_SWEEP_FPS, SweepPacer.FPS_OFF);
+            addIntKeyIfMissing(config, SnowWatchFaceUtil.KEY_SNOWFLAKE_SCALE,
+                    SnowWatchFaceUtil.SNOWFLAKE_SCALE_AUTO);
         }
 
         private void addIntKeyIfMissing(DataMap config, String key, int color) {
@@ -1292,25 +2215,32 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
                 }
             }
             if (uiUpdated) {
-                invalidate();
+                mFrameScheduler.requestFrame(FrameScheduler.REASON_CONFIG);
             }
+            mConfigLoaded = true;
+            updateStartupComplete();
         }
 
         /**
-         * Updates the color of a UI item according to the given {@code configKey}. Does nothing if
-         * {@code configKey} isn't recognized.
+         * Updates the color of a UI item, the sweep frame rate or the snowflake resolution,
+         * according to the given {@code configKey}. Does nothing if {@code configKey} isn't
+         * recognized.
          *
          * @return whether UI has been updated
          */
-        private boolean updateUiForKey(String configKey, int color) {
+        private boolean updateUiForKey(String configKey, int value) {
             if (configKey.equals(SnowWatchFaceUtil.KEY_BACKGROUND_COLOR)) {
-                setInteractiveBackgroundColor(color);
+                setInteractiveBackgroundColor(value);
             } else if (configKey.equals(SnowWatchFaceUtil.KEY_HOURS_COLOR)) {
-                setInteractiveHourDigitsColor(color);
+                setInteractiveHourDigitsColor(value);
             } else if (configKey.equals(SnowWatchFaceUtil.KEY_MINUTES_COLOR)) {
-                setInteractiveMinuteDigitsColor(color);
+                setInteractiveMinuteDigitsColor(value);
             } else if (configKey.equals(SnowWatchFaceUtil.KEY_SECONDS_COLOR)) {
-                setInteractiveSecondDigitsColor(color);
+                setInteractiveSecondDigitsColor(value);
+            } else if (configKey.equals(SnowWatchFaceUtil.KEY_SWEEP_FPS)) {
+                setSweepFps(value);
+            } else if (configKey.equals(SnowWatchFaceUtil.KEY_SNOWFLAKE_SCALE)) {
+                setSnowflakeScalePercent(value);
             } else {
                 Log.w(TAG, "Ignoring unknown config key: " + configKey);
                 return false;
@@ -1371,6 +2301,9 @@ public class SnowWatchFaceService extends CanvasWatchFaceService {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "onConnectionFailed: " + result);
             }
+            // No config is coming, the defaults are what the user sees.
+            mConfigLoaded = true;
+            updateStartupComplete();
         }
 
 //        @Override
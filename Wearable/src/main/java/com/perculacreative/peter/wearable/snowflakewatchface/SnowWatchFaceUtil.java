@@ -57,6 +57,23 @@ public final class SnowWatchFaceUtil {
      */
     public static final String KEY_SECONDS_COLOR = "SECONDS_COLOR";
 
+    /**
+     * The {@link DataMap} key for the {@link SnowWatchFaceService} sweep second hand frame rate.
+     * The value is an {@code int}, {@link SweepPacer#FPS_OFF} for a ticking second hand. Neither
+     * config activity offers it, it is only read from the config {@link DataMap}.
+     */
+    public static final String KEY_SWEEP_FPS = "SWEEP_FPS";
+
+    /**
+     * The {@link DataMap} key for the resolution of the {@link SnowWatchFaceService} snowflake
+     * relative to the screen. The value is an {@code int} percentage from 50 to 100, or
+     * {@link #SNOWFLAKE_SCALE_AUTO} to scale it with the render quality. Neither config activity
+     * offers it, it is only read from the config {@link DataMap}.
+     */
+    public static final String KEY_SNOWFLAKE_SCALE = "SNOWFLAKE_SCALE";
+
+    public static final int SNOWFLAKE_SCALE_AUTO = 0;
+
     /**
      * The path for the {@link DataItem} containing {@link SnowWatchFaceService} configuration.
      */
@@ -109,6 +126,58 @@ public final class SnowWatchFaceUtil {
         return Color.parseColor(colorName.toLowerCase());
     }
 
+    /**
+     * Writes the decimal digits of {@code value} into {@code buffer} at {@code offset} without
+     * allocating, so it can be used while drawing a frame.
+     *
+     * @return the number of chars written
+     */
+    public static int formatNumber(char[] buffer, int offset, int value) {
+        return formatNumber(buffer, offset, value, '0');
+    }
+
+    /**
+     * Like {@link #formatNumber(char[], int, int)}, with the digits of a locale whose zero digit
+     * is {@code zeroDigit}.
+     */
+    public static int formatNumber(char[] buffer, int offset, int value, char zeroDigit) {
+        int start = offset;
+        if (value < 0) {
+            buffer[offset++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = (char) (zeroDigit + value % 10);
+            value /= 10;
+        }
+        return offset + digits - start;
+    }
+
+    /**
+     * Writes {@code value} (0 to 99) as two digits with a leading zero into {@code buffer} at
+     * {@code offset}, the allocation free equivalent of {@code String.format("%02d", value)}.
+     *
+     * @return the number of chars written, always 2
+     */
+    public static int formatTwoDigitNumber(char[] buffer, int offset, int value) {
+        return formatTwoDigitNumber(buffer, offset, value, '0');
+    }
+
+    /**
+     * Like {@link #formatTwoDigitNumber(char[], int, int)}, with the digits of a locale whose
+     * zero digit is {@code zeroDigit}.
+     */
+    public static int formatTwoDigitNumber(char[] buffer, int offset, int value,
+            char zeroDigit) {
+        buffer[offset] = (char) (zeroDigit + value / 10 % 10);
+        buffer[offset + 1] = (char) (zeroDigit + value % 10);
+        return 2;
+    }
+
     /**
      * Asynchronously fetches the current config {@link DataMap} for {@link SnowWatchFaceService}
      * and passes it to the given callback.
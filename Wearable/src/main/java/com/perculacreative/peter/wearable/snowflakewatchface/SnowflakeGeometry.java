@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Builds snowflake line segments directly into a reusable {@code float[]} so a whole flake can be
+ * drawn with a single {@link Canvas#drawLines} call instead of one {@code drawLine} and one
+ * {@code rotate} per stub.
+ * <p>
+ * Angles are in degrees and follow {@link Canvas#rotate}: 0 points straight up from the center and
+ * positive values turn clockwise. The sin/cos of every symmetry step is looked up from a table, so
+ * adding a flake costs one {@link Math#sin}/{@link Math#cos} pair for its offset angle.
+ */
+public final class SnowflakeGeometry {
+
+    /** Largest number of points (or mini flake stubs) with a precomputed rotation table. */
+    public static final int MAX_SYMMETRY = 16;
+
+    /** Floats used by one line segment in the {@link Canvas#drawLines} format. */
+    private static final int FLOATS_PER_LINE = 4;
+
+    private static final float[][] SIN_TABLE = new float[MAX_SYMMETRY + 1][];
+    private static final float[][] COS_TABLE = new float[MAX_SYMMETRY + 1][];
+
+    static {
+        for (int n = 1; n <= MAX_SYMMETRY; n++) {
+            SIN_TABLE[n] = new float[n];
+            COS_TABLE[n] = new float[n];
+            for (int i = 0; i < n; i++) {
+                double angle = 2 * Math.PI * i / n;
+                SIN_TABLE[n][i] = (float) Math.sin(angle);
+                COS_TABLE[n][i] = (float) Math.cos(angle);
+            }
+        }
+    }
+
+    private float[] mLines;
+    private int mFloatCount;
+
+    private float mCenterX;
+    private float mCenterY;
+    private float mRotation;
+    private int mMaxMiniStubs = MAX_SYMMETRY;
+
+    public SnowflakeGeometry() {
+        mLines = new float[256 * FLOATS_PER_LINE];
+    }
+
+    /** Sets the point that all flakes are built around. */
+    public void setCenter(float centerX, float centerY) {
+        mCenterX = centerX;
+        mCenterY = centerY;
+    }
+
+    /**
+     * Sets a rotation in degrees that is added to the angle offset of every flake added
+     * afterwards, the equivalent of a single {@link Canvas#rotate} around the center.
+     */
+    public void setRotation(float degrees) {
+        mRotation = degrees;
+    }
+
+    public float getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * Limits the stubs of every mini flake added afterwards to {@code maxStubs}, to draw fewer
+     * lines on slow devices. {@link #MAX_SYMMETRY} removes the limit.
+     */
+    public void setMaxMiniStubs(int maxStubs) {
+        mMaxMiniStubs = maxStubs;
+    }
+
+    public int getMaxMiniStubs() {
+        return mMaxMiniStubs;
+    }
+
+    /** Discards all lines added so far. The backing array is kept for reuse. */
+    public void reset() {
+        mFloatCount = 0;
+    }
+
+    public boolean isEmpty() {
+        return mFloatCount == 0;
+    }
+
+    /** Returns the backing array; only the first {@link #getFloatCount()} entries are valid. */
+    public float[] getLines() {
+        return mLines;
+    }
+
+    public int getFloatCount() {
+        return mFloatCount;
+    }
+
+    /**
+     * Adds a snowflake with {@code points} arms running from {@code innerRadius} to
+     * {@code outerRadius}, each carrying {@code stubs} pairs of diagonal stubs that get shorter
+     * towards the tip.
+     */
+    public void addSnowflake(int points, float innerRadius, float outerRadius, int stubs,
+            float stubLength, float angleOffset) {
+        if (points <= 0 || points > MAX_SYMMETRY) {
+            throw new IllegalArgumentException("Unsupported number of points: " + points);
+        }
+        if (stubs < 0) {
+            stubs = 0;
+        }
+        ensureCapacity(points * (1 + 2 * stubs));
+
+        final double offset = Math.toRadians(mRotation + angleOffset);
+        final float offsetSin = (float) Math.sin(offset);
+        final float offsetCos = (float) Math.cos(offset);
+        final float[] stepSin = SIN_TABLE[points];
+        final float[] stepCos = COS_TABLE[points];
+        final float length = outerRadius - innerRadius;
+        final float spacing = length / (stubs + 1);
+
+        for (int i = 0; i < points; i++) {
+            // Unit vector along the arm (u) and perpendicular to it (v), both in screen space.
+            float sin = offsetSin * stepCos[i] + offsetCos * stepSin[i];
+            float cos = offsetCos * stepCos[i] - offsetSin * stepSin[i];
+            float ux = sin;
+            float uy = -cos;
+            float vx = cos;
+            float vy = sin;
+
+            for (int j = 0; j < stubs; j++) {
+                float along = innerRadius + spacing * (j + 1);
+                float size = stubLength * (stubs - j);
+                float startX = mCenterX + ux * along;
+                float startY = mCenterY + uy * along;
+                float tipAlong = along + size;
+
+                addLine(startX, startY,
+                        mCenterX + ux * tipAlong - vx * size,
+                        mCenterY + uy * tipAlong - vy * size);
+                addLine(startX, startY,
+                        mCenterX + ux * tipAlong + vx * size,
+                        mCenterY + uy * tipAlong + vy * size);
+            }
+
+            addLine(mCenterX + ux * innerRadius, mCenterY + uy * innerRadius,
+                    mCenterX + ux * outerRadius, mCenterY + uy * outerRadius);
+        }
+    }
+
+    /**
+     * Adds {@code points} small star shaped flakes placed {@code radius} away from the center,
+     * each made of {@code stubs} spokes of length {@code stubLength}.
+     */
+    public void addMiniSnowflake(int points, float radius, int stubs, float stubLength,
+            float angleOffset) {
+        if (points <= 0 || points > MAX_SYMMETRY || stubs <= 0 || stubs > MAX_SYMMETRY) {
+            throw new IllegalArgumentException(
+                    "Unsupported mini snowflake: " + points + " points, " + stubs + " stubs");
+        }
+        stubs = Math.min(stubs, mMaxMiniStubs);
+        ensureCapacity(points * stubs);
+
+        final double offset = Math.toRadians(mRotation + angleOffset);
+        final float offsetSin = (float) Math.sin(offset);
+        final float offsetCos = (float) Math.cos(offset);
+        final float[] pointSin = SIN_TABLE[points];
+        final float[] pointCos = COS_TABLE[points];
+        final float[] stubSin = SIN_TABLE[stubs];
+        final float[] stubCos = COS_TABLE[stubs];
+
+        for (int i = 0; i < points; i++) {
+            float sin = offsetSin * pointCos[i] + offsetCos * pointSin[i];
+            float cos = offsetCos * pointCos[i] - offsetSin * pointSin[i];
+            float pivotX = mCenterX + sin * radius;
+            float pivotY = mCenterY - cos * radius;
+
+            for (int j = 0; j < stubs; j++) {
+                float stubAngleSin = sin * stubCos[j] + cos * stubSin[j];
+                float stubAngleCos = cos * stubCos[j] - sin * stubSin[j];
+                addLine(pivotX, pivotY,
+                        pivotX + stubAngleSin * stubLength,
+                        pivotY - stubAngleCos * stubLength);
+            }
+        }
+    }
+
+    /**
+     * Adds every line of {@code other}, which must have been built around the same center and
+     * rotation.
+     */
+    public void addAll(SnowflakeGeometry other) {
+        ensureCapacity(other.mFloatCount / FLOATS_PER_LINE);
+        System.arraycopy(other.mLines, 0, mLines, mFloatCount, other.mFloatCount);
+        mFloatCount += other.mFloatCount;
+    }
+
+    /** Draws every line added since the last {@link #reset()} with one call. */
+    public void draw(Canvas canvas, Paint paint) {
+        if (mFloatCount > 0) {
+            canvas.drawLines(mLines, 0, mFloatCount, paint);
+        }
+    }
+
+    private void addLine(float startX, float startY, float stopX, float stopY) {
+        final float[] lines = mLines;
+        int i = mFloatCount;
+        lines[i] = startX;
+        lines[i + 1] = startY;
+        lines[i + 2] = stopX;
+        lines[i + 3] = stopY;
+        mFloatCount = i + FLOATS_PER_LINE;
+    }
+
+    /** Grows the backing array so that {@code lineCount} more lines fit. */
+    private void ensureCapacity(int lineCount) {
+        int required = mFloatCount + lineCount * FLOATS_PER_LINE;
+        if (required > mLines.length) {
+            float[] lines = new float[Math.max(required, mLines.length * 2)];
+            System.arraycopy(mLines, 0, lines, 0, mFloatCount);
+            mLines = lines;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+/**
+ * Caches the unrotated morph snowflake for the current count in a bitmap, so that it only has to
+ * be rasterized when the count changes rather than on every frame. Each frame then draws the
+ * cached bitmap rotated to line up with the hour hand.
+ * <p>
+ * Flakes that stay the same for a whole morph stage are cached separately and composed into the
+ * per-count bitmap, so a count change only rasterizes the flakes that actually moved.
+ * <p>
+ * The bitmaps can be rendered below the surface resolution with {@link #setScale(float)} and are
+ * then upscaled with filtering. The thin strokes still look fine, and rasterizing them costs a
+ * fraction of the pixels on large surfaces.
+ */
+public final class SnowflakeRenderCache implements BitmapBudget.Cache {
+
+    /**
+     * Callback interface used to build the flakes of a morph stage into the cache's geometry.
+     */
+    public interface FlakeBuilder {
+        /** Adds the flakes that don't change for the whole of {@code stage}. */
+        void onBuildFixedFlakes(SnowflakeGeometry geometry, int count, int stage);
+
+        /** Adds the flakes of {@code stage} that depend on {@code count}. */
+        void onBuildMorphFlakes(SnowflakeGeometry geometry, int count, int stage);
+    }
+
+    private final SnowflakeGeometry mGeometry;
+    private final CachedLayer mFixedLayer = new CachedLayer();
+    private final CachedLayer mFlakeLayer = new CachedLayer();
+    private final Matrix mMatrix = new Matrix();
+
+    /** Smallest supported resolution scale. */
+    public static final float MIN_SCALE = 0.5f;
+
+    private int mWidth;
+    private int mHeight;
+    private float mScale = 1;
+
+    private int mFixedStage = -1;
+    private boolean mFixedEmpty = true;
+    private int mCount;
+    private int mStage = -1;
+    private Paint mPaint;
+    private int mColor;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mFixedMissCount;
+
+    public SnowflakeRenderCache(SnowflakeGeometry geometry) {
+        mGeometry = geometry;
+    }
+
+    /** Sets the size of the surface the flake is drawn on. Changing it invalidates the cache. */
+    public void setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        updateLayerSize();
+    }
+
+    /**
+     * Sets the resolution of the cached bitmaps relative to the surface, between
+     * {@link #MIN_SCALE} and 1. Changing it invalidates the cache.
+     */
+    public void setScale(float scale) {
+        scale = Math.max(MIN_SCALE, Math.min(1, scale));
+        if (scale != mScale) {
+            mScale = scale;
+            updateLayerSize();
+        }
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    private void updateLayerSize() {
+        int width = (int) Math.ceil(mWidth * mScale);
+        int height = (int) Math.ceil(mHeight * mScale);
+        mFixedLayer.setSize(width, height);
+        mFlakeLayer.setSize(width, height);
+    }
+
+    /** Drops the cached flakes so they are rasterized again on the next draw. */
+    public void invalidate() {
+        mFixedLayer.invalidate();
+        mFlakeLayer.invalidate();
+    }
+
+    /**
+     * Draws the snowflake for {@code count} rotated by {@code rotation} degrees around
+     * ({@code centerX}, {@code centerY}), re-rendering it with {@code paint} only if the count,
+     * stage, paint, paint color or surface size changed since the last call. The cached bitmap is
+     * drawn with {@code bitmapPaint}, which may be {@code null} to draw it unfiltered.
+     */
+    public void draw(Canvas canvas, int count, int stage, Paint paint, Paint bitmapPaint,
+            float rotation, float centerX, float centerY, FlakeBuilder builder) {
+        int color = paint.getColor();
+        if (paint != mPaint || color != mColor) {
+            mPaint = paint;
+            mColor = color;
+            invalidate();
+        }
+
+        if (!mFixedLayer.isValid() || stage != mFixedStage) {
+            Canvas fixedCanvas = mFixedLayer.beginRecording();
+            if (fixedCanvas == null) {
+                drawDirectly(canvas, count, stage, paint, rotation, builder);
+                return;
+            }
+            mGeometry.setRotation(0);
+            mGeometry.reset();
+            builder.onBuildFixedFlakes(mGeometry, count, stage);
+            drawScaled(fixedCanvas, paint);
+            mFixedEmpty = mGeometry.isEmpty();
+            mFixedLayer.endRecording();
+            mFixedStage = stage;
+            mFixedMissCount++;
+            mFlakeLayer.invalidate();
+        }
+
+        if (!mFlakeLayer.isValid() || count != mCount || stage != mStage) {
+            Canvas flakeCanvas = mFlakeLayer.beginRecording();
+            if (flakeCanvas == null) {
+                drawDirectly(canvas, count, stage, paint, rotation, builder);
+                return;
+            }
+            if (!mFixedEmpty) {
+                mFixedLayer.draw(flakeCanvas, null);
+            }
+            mGeometry.setRotation(0);
+            mGeometry.reset();
+            builder.onBuildMorphFlakes(mGeometry, count, stage);
+            drawScaled(flakeCanvas, paint);
+            mFlakeLayer.endRecording();
+            mCount = count;
+            mStage = stage;
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+
+        mMatrix.setScale(1 / mScale, 1 / mScale);
+        mMatrix.postRotate(rotation, centerX, centerY);
+        canvas.drawBitmap(mFlakeLayer.getBitmap(), mMatrix, bitmapPaint);
+    }
+
+    /** Draws the geometry, built in surface coordinates, into a layer at the layer scale. */
+    private void drawScaled(Canvas layerCanvas, Paint paint) {
+        if (mScale == 1) {
+            mGeometry.draw(layerCanvas, paint);
+            return;
+        }
+        layerCanvas.save();
+        layerCanvas.scale(mScale, mScale);
+        mGeometry.draw(layerCanvas, paint);
+        layerCanvas.restore();
+    }
+
+    private void drawDirectly(Canvas canvas, int count, int stage, Paint paint, float rotation,
+            FlakeBuilder builder) {
+        mGeometry.setRotation(rotation);
+        mGeometry.reset();
+        builder.onBuildFixedFlakes(mGeometry, count, stage);
+        builder.onBuildMorphFlakes(mGeometry, count, stage);
+        mGeometry.draw(canvas, paint);
+    }
+
+    /** Number of frames drawn straight from the cached per-count bitmap. */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Number of frames that had to re-render the per-count bitmap. */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /** Number of times the fixed flakes of a stage had to be re-rendered. */
+    public int getFixedMissCount() {
+        return mFixedMissCount;
+    }
+
+    public void resetStats() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mFixedMissCount = 0;
+    }
+
+    /** Returns the bytes allocated for the cached bitmaps. */
+    @Override // BitmapBudget.Cache
+    public long getByteCount() {
+        return mFixedLayer.getByteCount() + mFlakeLayer.getByteCount();
+    }
+
+    /** Frees the cached bitmaps. */
+    @Override // BitmapBudget.Cache
+    public void release() {
+        mFixedLayer.release();
+        mFlakeLayer.release();
+    }
+}
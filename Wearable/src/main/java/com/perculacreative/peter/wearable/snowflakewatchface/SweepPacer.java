@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the frames of the sweep second hand off {@link Choreographer} vsync callbacks at a fixed
+ * rate, such as 15 or 30 fps.
+ * <p>
+ * Every frame has a strict budget of half its interval. As soon as a frame goes over it, the
+ * pacer stops and reports a fallback, so the watch face can go back to ticking once per second.
+ * The first frame after starting is exempt, since it usually rebuilds caches. The fallback sticks
+ * until {@link #resetFallback()}, normally the next time the screen wakes up.
+ */
+public final class SweepPacer implements Choreographer.FrameCallback {
+    private static final String TAG = "SweepPacer";
+
+    /** Frame rate meaning the sweep mode is off. */
+    public static final int FPS_OFF = 0;
+
+    /** Highest supported frame rate, the display refresh rate of current watches. */
+    public static final int MAX_FPS = 60;
+
+    /**
+     * Callback interface to draw the frames paced by a {@link SweepPacer}.
+     */
+    public interface Callback {
+        /** Draws one frame of the sweep. */
+        void onSweepFrame();
+
+        /** Called once the pacer stopped because a frame went over its budget. */
+        void onSweepFallback();
+    }
+
+    private final Callback mCallback;
+
+    private int mFps = FPS_OFF;
+    private long mIntervalNanos;
+    private boolean mRunning;
+    private boolean mFellBack;
+
+    private long mNextFrameNanos;
+    private long mStartFrameNanos;
+    private long mLastFrameNanos;
+    private int mFrameCount;
+    private int mDroppedFrameCount;
+
+    public SweepPacer(Callback callback) {
+        mCallback = callback;
+    }
+
+    /** Sets the frame rate, {@link #FPS_OFF} to disable the sweep. Stops a running sweep. */
+    public void setFps(int fps) {
+        fps = Math.max(FPS_OFF, Math.min(fps, MAX_FPS));
+        if (fps != mFps) {
+            stop();
+            mFps = fps;
+            mIntervalNanos = fps == FPS_OFF ? 0 : TimeUnit.SECONDS.toNanos(1) / fps;
+        }
+    }
+
+    public int getFps() {
+        return mFps;
+    }
+
+    /** Returns whether the sweep is enabled and hasn't fallen back to ticking. */
+    public boolean canRun() {
+        return mFps != FPS_OFF && !mFellBack;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /** Allows the sweep to run again after it fell back to ticking. */
+    public void resetFallback() {
+        mFellBack = false;
+    }
+
+    /**
+     * Starts pacing frames if the sweep {@link #canRun() can run}.
+     *
+     * @return whether the sweep is running
+     */
+    public boolean start() {
+        if (mRunning || !canRun()) {
+            return mRunning;
+        }
+        mRunning = true;
+        mNextFrameNanos = 0;
+        mStartFrameNanos = 0;
+        mFrameCount = 0;
+        mDroppedFrameCount = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+        return true;
+    }
+
+    /** Stops pacing frames and logs the achieved frame rate. */
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Sweep at " + mFps + " fps stopped: achieved " + getAchievedFps()
+                    + " fps, " + mDroppedFrameCount + " dropped frames");
+        }
+    }
+
+    /** Returns the frame rate achieved since the sweep last started. */
+    public float getAchievedFps() {
+        long elapsedNanos = mLastFrameNanos - mStartFrameNanos;
+        if (mFrameCount < 2 || elapsedNanos <= 0) {
+            return 0;
+        }
+        return (mFrameCount - 1) * (float) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /** Returns the number of paced frames missed since the sweep last started. */
+    public int getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    @Override // Choreographer.FrameCallback
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mNextFrameNanos == 0) {
+            mStartFrameNanos = frameTimeNanos;
+            mNextFrameNanos = frameTimeNanos;
+        }
+        // Vsync usually runs faster than the sweep, wait for the next paced frame.
+        if (frameTimeNanos < mNextFrameNanos) {
+            Choreographer.getInstance().postFrameCallback(this);
+            return;
+        }
+        long missed = (frameTimeNanos - mNextFrameNanos) / mIntervalNanos;
+        mDroppedFrameCount += missed;
+        mNextFrameNanos += (missed + 1) * mIntervalNanos;
+        mLastFrameNanos = frameTimeNanos;
+
+        long startNanos = System.nanoTime();
+        mCallback.onSweepFrame();
+        long frameNanos = System.nanoTime() - startNanos;
+        mFrameCount++;
+
+        if (!mRunning) {
+            // Stopped by the callback.
+            return;
+        }
+        if (mFrameCount > 1 && frameNanos > mIntervalNanos / 2) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Frame took " + TimeUnit.NANOSECONDS.toMicros(frameNanos)
+                        + " us, falling back to ticking");
+            }
+            stop();
+            mFellBack = true;
+            mCallback.onSweepFallback();
+            return;
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
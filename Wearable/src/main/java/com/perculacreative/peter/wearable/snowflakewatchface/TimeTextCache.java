@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.text.format.DateFormat;
+
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The hour, minute, day of week and date text of the watch face, formatted into reusable
+ * {@code char[]} buffers so they can be drawn with {@link android.graphics.Canvas#drawText(char[],
+ * int, int, float, float, Paint)}.
+ * <p>
+ * The text is only formatted again when the minute or day of the shared calendar changes, or after
+ * {@link #reload()} when the locale, time zone or 12/24 hour setting changed. The widths of the
+ * hour and minute text are measured alongside, so drawing doesn't need {@code measureText}.
+ * <p>
+ * Digits are written in the locale's own digits, as {@code String.format} would. Glyph atlas
+ * slots only hold 0 to 9, so other digits are drawn as text, which doesn't allocate either.
+ */
+public final class TimeTextCache {
+
+    private final Context mContext;
+    private final Calendar mCalendar;
+    private final Date mDate = new Date();
+
+    private SimpleDateFormat mDayOfWeekFormat;
+    private java.text.DateFormat mDateFormat;
+    private boolean mIs24Hour;
+    private char mZeroDigit;
+
+    private Paint mHourPaint;
+    private Paint mMinutePaint;
+
+    private int mMinuteKey = -1;
+    private int mDayKey = -1;
+    private boolean mWidthsValid;
+
+    private final char[] mHour = new char[2];
+    private int mHourLength;
+    private float mHourWidth;
+
+    private final char[] mMinute = new char[2];
+    private float mMinuteWidth;
+
+    /** The time as {@code h:mm}, shown in the center circle. */
+    private final char[] mCenter = new char[5];
+    private int mCenterLength;
+
+    private char[] mDayOfWeek = new char[16];
+    private int mDayOfWeekLength;
+    private char[] mDateText = new char[16];
+    private int mDateLength;
+
+    /**
+     * @param calendar the calendar the engine sets to the frame time, the text follows its fields
+     *     and time zone
+     */
+    public TimeTextCache(Context context, Calendar calendar) {
+        mContext = context;
+        mCalendar = calendar;
+        reload();
+    }
+
+    /**
+     * Sets the paints used to measure the hour and minute text. Call {@link #invalidateWidths()}
+     * when their size or typeface changes.
+     */
+    public void setPaints(Paint hourPaint, Paint minutePaint) {
+        mHourPaint = hourPaint;
+        mMinutePaint = minutePaint;
+        mWidthsValid = false;
+    }
+
+    /**
+     * Re-reads the date formats, digits and the 12/24 hour setting, for when the locale, time
+     * zone or time settings changed. The text is formatted again on the next {@link #update()}.
+     */
+    public void reload() {
+        mDayOfWeekFormat = new SimpleDateFormat("EEEE", Locale.getDefault());
+        mDayOfWeekFormat.setCalendar(mCalendar);
+        mDateFormat = DateFormat.getDateFormat(mContext);
+        mDateFormat.setCalendar(mCalendar);
+        mIs24Hour = DateFormat.is24HourFormat(mContext);
+        mZeroDigit = DecimalFormatSymbols.getInstance(Locale.getDefault()).getZeroDigit();
+        mMinuteKey = -1;
+        mDayKey = -1;
+    }
+
+    /** Measures the hour and minute text again on the next {@link #update()}. */
+    public void invalidateWidths() {
+        mWidthsValid = false;
+    }
+
+    /**
+     * Brings the text up to date with the current time of the calendar. This is cheap unless the
+     * minute or the day changed since the last call.
+     */
+    public void update() {
+        final Calendar calendar = mCalendar;
+        int minuteKey = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        int dayKey = calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+
+        if (dayKey != mDayKey) {
+            mDayKey = dayKey;
+            formatDate();
+        }
+        if (minuteKey != mMinuteKey) {
+            mMinuteKey = minuteKey;
+            formatTime();
+            mWidthsValid = false;
+        }
+        if (!mWidthsValid && mHourPaint != null && mMinutePaint != null) {
+            mHourWidth = mHourPaint.measureText(mHour, 0, mHourLength);
+            mMinuteWidth = mMinutePaint.measureText(mMinute, 0, mMinute.length);
+            mWidthsValid = true;
+        }
+    }
+
+    private void formatTime() {
+        int hour = mCalendar.get(Calendar.HOUR);
+        if (hour == 0) {
+            hour = 12;
+        }
+        int minute = mCalendar.get(Calendar.MINUTE);
+
+        if (mIs24Hour) {
+            mHourLength = SnowWatchFaceUtil.formatTwoDigitNumber(mHour, 0,
+                    mCalendar.get(Calendar.HOUR_OF_DAY), mZeroDigit);
+        } else {
+            mHourLength = SnowWatchFaceUtil.formatNumber(mHour, 0, hour, mZeroDigit);
+        }
+        SnowWatchFaceUtil.formatTwoDigitNumber(mMinute, 0, minute, mZeroDigit);
+        mCenterLength = formatCenterText(mCenter, mCalendar, mZeroDigit);
+    }
+
+    /**
+     * Formats the time of {@code calendar} as {@code h:mm} into {@code buffer}, which must hold
+     * at least five chars.
+     *
+     * @param zeroDigit the zero digit of the locale, see {@link #getZeroDigit()}
+     * @return the number of chars written
+     */
+    public static int formatCenterText(char[] buffer, Calendar calendar, char zeroDigit) {
+        int hour = calendar.get(Calendar.HOUR);
+        if (hour == 0) {
+            hour = 12;
+        }
+        int length = SnowWatchFaceUtil.formatNumber(buffer, 0, hour, zeroDigit);
+        buffer[length++] = ':';
+        length += SnowWatchFaceUtil.formatTwoDigitNumber(buffer, length,
+                calendar.get(Calendar.MINUTE), zeroDigit);
+        return length;
+    }
+
+    private void formatDate() {
+        mDate.setTime(mCalendar.getTimeInMillis());
+
+        String dayOfWeek = mDayOfWeekFormat.format(mDate);
+        mDayOfWeek = ensureCapacity(mDayOfWeek, dayOfWeek.length());
+        dayOfWeek.getChars(0, dayOfWeek.length(), mDayOfWeek, 0);
+        mDayOfWeekLength = dayOfWeek.length();
+
+        String date = mDateFormat.format(mDate);
+        mDateText = ensureCapacity(mDateText, date.length());
+        date.getChars(0, date.length(), mDateText, 0);
+        mDateLength = date.length();
+    }
+
+    private static char[] ensureCapacity(char[] buffer, int length) {
+        return buffer.length >= length ? buffer : new char[length];
+    }
+
+    public boolean is24Hour() {
+        return mIs24Hour;
+    }
+
+    /** Returns the zero digit of the locale, the other digits follow it. */
+    public char getZeroDigit() {
+        return mZeroDigit;
+    }
+
+    /** Returns the hour, two digits in 24 hour format and without a leading zero otherwise. */
+    public char[] getHourText() {
+        return mHour;
+    }
+
+    public int getHourLength() {
+        return mHourLength;
+    }
+
+    /** Returns the width of the hour text in the hour paint. */
+    public float getHourWidth() {
+        return mHourWidth;
+    }
+
+    /** Returns the two digit minute. */
+    public char[] getMinuteText() {
+        return mMinute;
+    }
+
+    public int getMinuteLength() {
+        return mMinute.length;
+    }
+
+    /** Returns the width of the minute text in the minute paint. */
+    public float getMinuteWidth() {
+        return mMinuteWidth;
+    }
+
+    public char[] getCenterText() {
+        return mCenter;
+    }
+
+    public int getCenterLength() {
+        return mCenterLength;
+    }
+
+    public char[] getDayOfWeekText() {
+        return mDayOfWeek;
+    }
+
+    public int getDayOfWeekLength() {
+        return mDayOfWeekLength;
+    }
+
+    public char[] getDateText() {
+        return mDateText;
+    }
+
+    public int getDateLength() {
+        return mDateLength;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.graphics.Palette;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/**
+ * Compares the colors {@link ColorExtractor} picks with those of {@link Palette}, which it
+ * replaces, on a bitmap with one clear candidate per target. The timings of both are logged for
+ * that bitmap and for backgrounds more like a photo: a gradient, the gradient with noise, and
+ * the bundled preview image.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ColorExtractorTest {
+    private static final String TAG = "ColorExtractorTest";
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 320;
+
+    private static final int VIBRANT = Color.rgb(220, 30, 30);
+    private static final int LIGHT_VIBRANT = Color.rgb(255, 160, 200);
+    private static final int DARK_MUTED = Color.rgb(45, 50, 70);
+
+    /**
+     * {@code Palette} quantizes to 5 bits per channel, so its colors are off by up to 7, plus one
+     * from rounding the average of its boxes.
+     */
+    private static final int MAX_CHANNEL_DELTA = 8;
+    /** Lets the runtime compile both before they are timed. */
+    private static final int WARM_UP_RUNS = 20;
+    private static final int RUNS = 100;
+    /** Largest change per channel the noise makes. */
+    private static final int NOISE = 24;
+
+    private Bitmap mBitmap;
+    private Bitmap mGradient;
+    private Bitmap mNoisyGradient;
+    private Bitmap mPreview;
+
+    @Before
+    public void setUp() {
+        // Three stripes, one per target, so both must find the same three colors.
+        mBitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mBitmap);
+        Paint paint = new Paint();
+        int[] colors = {VIBRANT, LIGHT_VIBRANT, DARK_MUTED};
+        for (int i = 0; i < colors.length; i++) {
+            paint.setColor(colors[i]);
+            canvas.drawRect(i * WIDTH / colors.length, 0, (i + 1) * WIDTH / colors.length,
+                    HEIGHT, paint);
+        }
+
+        // A sky at dusk, from deep blue over violet to orange.
+        mGradient = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        paint.setShader(new LinearGradient(0, 0, WIDTH / 4, HEIGHT,
+                new int[] {Color.rgb(20, 30, 90), Color.rgb(120, 60, 140), Color.rgb(250, 150, 60)},
+                null, Shader.TileMode.CLAMP));
+        new Canvas(mGradient).drawRect(0, 0, WIDTH, HEIGHT, paint);
+
+        // The same sky with the grain of a photo, always the same grain.
+        mNoisyGradient = mGradient.copy(Bitmap.Config.ARGB_8888, true);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        mNoisyGradient.getPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        Random random = new Random(1);
+        for (int i = 0; i < pixels.length; i++) {
+            int noise = random.nextInt(2 * NOISE + 1) - NOISE;
+            pixels[i] = Color.rgb(clamp(Color.red(pixels[i]) + noise),
+                    clamp(Color.green(pixels[i]) + noise),
+                    clamp(Color.blue(pixels[i]) + noise));
+        }
+        mNoisyGradient.setPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+
+        mPreview = BitmapFactory.decodeResource(
+                InstrumentationRegistry.getTargetContext().getResources(),
+                R.drawable.preview_snowflake);
+    }
+
+    @After
+    public void tearDown() {
+        mBitmap.recycle();
+        mGradient.recycle();
+        mNoisyGradient.recycle();
+        mPreview.recycle();
+    }
+
+    @Test
+    public void picksTheSameColorsAsPalette() {
+        ColorExtractor extractor = new ColorExtractor();
+        extractor.extract(mBitmap);
+        Palette palette = Palette.from(mBitmap).generate();
+
+        assertColorNear("vibrant", palette.getVibrantColor(Color.WHITE),
+                extractor.getVibrantColor(Color.WHITE));
+        assertColorNear("light vibrant", palette.getLightVibrantColor(Color.WHITE),
+                extractor.getLightVibrantColor(Color.WHITE));
+        assertColorNear("dark muted", palette.getDarkMutedColor(Color.BLACK),
+                extractor.getDarkMutedColor(Color.BLACK));
+    }
+
+    @Test
+    public void picksTheSameColorsEveryTime() {
+        ColorExtractor extractor = new ColorExtractor();
+        for (Bitmap bitmap : new Bitmap[] {mBitmap, mGradient, mNoisyGradient, mPreview}) {
+            extractor.extract(bitmap);
+            int vibrant = extractor.getVibrantColor(Color.WHITE);
+            int lightVibrant = extractor.getLightVibrantColor(Color.WHITE);
+            int darkMuted = extractor.getDarkMutedColor(Color.BLACK);
+
+            // After another bitmap, so that nothing carries over.
+            extractor.extract(mBitmap == bitmap ? mPreview : mBitmap);
+            extractor.extract(bitmap);
+            assertEquals(vibrant, extractor.getVibrantColor(Color.WHITE));
+            assertEquals(lightVibrant, extractor.getLightVibrantColor(Color.WHITE));
+            assertEquals(darkMuted, extractor.getDarkMutedColor(Color.BLACK));
+        }
+    }
+
+    @Test
+    public void logsTimings() {
+        ColorExtractor extractor = new ColorExtractor();
+        String[] names = {"stripes", "gradient", "noisy gradient", "preview"};
+        Bitmap[] bitmaps = {mBitmap, mGradient, mNoisyGradient, mPreview};
+        for (Bitmap bitmap : bitmaps) {
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                extractor.extract(bitmap);
+                Palette.from(bitmap).generate();
+            }
+        }
+
+        for (int b = 0; b < bitmaps.length; b++) {
+            Bitmap bitmap = bitmaps[b];
+            long start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                extractor.extract(bitmap);
+            }
+            long extractorMicros = (System.nanoTime() - start) / 1000 / RUNS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                Palette.from(bitmap).generate();
+            }
+            long paletteMicros = (System.nanoTime() - start) / 1000 / RUNS;
+
+            Log.i(TAG, names[b] + " " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                    + ": extractor = " + extractorMicros + " us, palette = " + paletteMicros
+                    + " us");
+        }
+    }
+
+    private static int clamp(int channel) {
+        return Math.max(0, Math.min(255, channel));
+    }
+
+    private static void assertColorNear(String target, int expected, int actual) {
+        String message = target + ": expected " + Integer.toHexString(expected) + " but was "
+                + Integer.toHexString(actual);
+        assertTrue(message, Math.abs(Color.red(expected) - Color.red(actual)) <= MAX_CHANNEL_DELTA);
+        assertTrue(message,
+                Math.abs(Color.green(expected) - Color.green(actual)) <= MAX_CHANNEL_DELTA);
+        assertTrue(message,
+                Math.abs(Color.blue(expected) - Color.blue(actual)) <= MAX_CHANNEL_DELTA);
+    }
+}
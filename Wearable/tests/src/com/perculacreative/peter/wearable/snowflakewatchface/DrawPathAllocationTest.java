@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.rule.UiThreadTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Regression test for allocations on the draw path. It replays a simulated day of frames of each
+ * watch face into an offscreen bitmap, one frame per snowflake count, and fails if drawing them
+ * allocated.
+ * <p>
+ * The counter covers the whole runtime, since the per-thread allocation counting is deprecated,
+ * so the worker threads are never started: the morph table is loaded up front and installed as
+ * it would be once mapped. The first day fills the caches, and only the second one is measured.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrawPathAllocationTest {
+    private static final int SIZE = 320;
+    private static final long STEP_MS = TimeUnit.SECONDS.toMillis(14);
+    private static final int FRAMES = (int) (TimeUnit.DAYS.toMillis(1) / STEP_MS);
+    /** Covers only reading the counter itself, which returns a new string. */
+    private static final long SLACK_BYTES = 256;
+    private static final String TABLE_FILE_NAME = "draw_path_morph_table.bin";
+
+    @Rule
+    public final UiThreadTestRule mUiThreadTestRule = new UiThreadTestRule();
+
+    private Context mContext;
+    private File mTableFile;
+    private MorphTable mTable;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mTableFile = new File(mContext.getCacheDir(), TABLE_FILE_NAME);
+        mTable = MorphTable.load(mTableFile, MorphTimeline.load(mContext.getResources()),
+                MorphTable.DEFAULT_ROW_COUNT);
+        assertNotNull(mTable);
+    }
+
+    @After
+    public void tearDown() {
+        mTableFile.delete();
+    }
+
+    /**
+     * Callback interface to draw one frame of a watch face for a given time.
+     */
+    private interface FrameDrawer {
+        void drawFrame(Canvas canvas, long timeMs);
+    }
+
+    @Test
+    @UiThreadTest
+    public void timeFaceDrawsWithoutAllocating() {
+        SnowWatchFaceService service = new SnowWatchFaceService();
+        service.attachBaseContextForTest(mContext);
+        final SnowWatchFaceService.Engine engine = service.onCreateEngine();
+        engine.setUp();
+        engine.onMorphTableLoaded(mTable);
+        engine.setSurfaceSize(SIZE, SIZE);
+        try {
+            assertDayDoesNotAllocate(new FrameDrawer() {
+                @Override
+                public void drawFrame(Canvas canvas, long timeMs) {
+                    engine.drawFrame(canvas, timeMs);
+                }
+            });
+        } finally {
+            engine.tearDown();
+        }
+    }
+
+    @Test
+    @UiThreadTest
+    public void stepsFaceDrawsWithoutAllocating() {
+        SnowWatchFaceStepsService service = new SnowWatchFaceStepsService();
+        service.attachBaseContextForTest(mContext);
+        final SnowWatchFaceStepsService.Engine engine = service.onCreateEngine();
+        engine.setUp();
+        engine.onMorphTableLoaded(mTable);
+        engine.setSurfaceSize(SIZE, SIZE);
+        try {
+            assertDayDoesNotAllocate(new FrameDrawer() {
+                @Override
+                public void drawFrame(Canvas canvas, long timeMs) {
+                    engine.drawFrame(canvas, timeMs);
+                }
+            });
+        } finally {
+            engine.tearDown();
+        }
+    }
+
+    private static void assertDayDoesNotAllocate(FrameDrawer drawer) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Calendar midnight = Calendar.getInstance();
+        midnight.set(Calendar.HOUR_OF_DAY, 0);
+        midnight.set(Calendar.MINUTE, 0);
+        midnight.set(Calendar.SECOND, 0);
+        midnight.set(Calendar.MILLISECOND, 0);
+        long startMs = midnight.getTimeInMillis();
+        try {
+            drawDay(drawer, canvas, startMs);
+            long before = getAllocatedBytes();
+            drawDay(drawer, canvas, startMs);
+            long allocated = getAllocatedBytes() - before;
+            assertTrue(FRAMES + " frames allocated " + allocated + " bytes",
+                    allocated <= SLACK_BYTES);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    private static void drawDay(FrameDrawer drawer, Canvas canvas, long startMs) {
+        for (int i = 0; i < FRAMES; i++) {
+            drawer.drawFrame(canvas, startMs + i * STEP_MS);
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+}
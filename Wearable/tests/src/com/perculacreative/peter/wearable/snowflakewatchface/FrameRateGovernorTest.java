@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+import android.os.BatteryManager;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests how {@link FrameRateGovernor} walks its ladder of tick periods.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameRateGovernorTest {
+    private static final long WAKE_MS = 1000;
+    private static final long IDLE_MS = WAKE_MS + TimeUnit.MINUTES.toMillis(1);
+
+    private FrameRateGovernor mGovernor;
+
+    @Before
+    public void setUp() {
+        mGovernor = new FrameRateGovernor();
+        mGovernor.onWake(WAKE_MS);
+    }
+
+    @Test
+    public void ticksEverySecondAfterWaking() {
+        assertEquals(1000, mGovernor.getPeriodMs(WAKE_MS));
+        assertEquals(1000, mGovernor.getPeriodMs(IDLE_MS - 1));
+        assertTrue(mGovernor.allowsSweep(WAKE_MS));
+    }
+
+    @Test
+    public void slowsDownOnceIdle() {
+        assertEquals(2000, mGovernor.getPeriodMs(IDLE_MS));
+        assertFalse(mGovernor.allowsSweep(IDLE_MS));
+
+        mGovernor.onWake(IDLE_MS);
+        assertEquals(1000, mGovernor.getPeriodMs(IDLE_MS));
+    }
+
+    @Test
+    public void slowsDownOnLowBatteryUnlessCharging() {
+        mGovernor.setBatteryState(createBatteryChanged(15, 0));
+        assertEquals(5000, mGovernor.getPeriodMs(WAKE_MS));
+        // Low battery outranks idle.
+        assertEquals(5000, mGovernor.getPeriodMs(IDLE_MS));
+
+        mGovernor.setBatteryState(createBatteryChanged(15, BatteryManager.BATTERY_PLUGGED_AC));
+        assertEquals(1000, mGovernor.getPeriodMs(WAKE_MS));
+
+        mGovernor.setBatteryState(createBatteryChanged(16, 0));
+        assertEquals(1000, mGovernor.getPeriodMs(WAKE_MS));
+    }
+
+    @Test
+    public void ticksEveryMinuteWhenMutedOrSavingPower() {
+        mGovernor.setMuted(true);
+        assertEquals(TimeUnit.MINUTES.toMillis(1), mGovernor.getPeriodMs(WAKE_MS));
+        mGovernor.setMuted(false);
+
+        mGovernor.setPowerSaveMode(true);
+        assertEquals(TimeUnit.MINUTES.toMillis(1), mGovernor.getPeriodMs(WAKE_MS));
+        mGovernor.setPowerSaveMode(false);
+
+        assertEquals(1000, mGovernor.getPeriodMs(WAKE_MS));
+    }
+
+    @Test
+    public void climbsTheLadderUntilFramesFitAQuarterOfThePeriod() {
+        // Fits a quarter of a second.
+        mGovernor.onFrameDrawn(TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(1000, mGovernor.getPeriodMs(WAKE_MS));
+
+        // Too slow for 1 s, fits 2 s.
+        mGovernor = new FrameRateGovernor();
+        mGovernor.onWake(WAKE_MS);
+        mGovernor.onFrameDrawn(TimeUnit.MILLISECONDS.toNanos(400));
+        assertEquals(2000, mGovernor.getPeriodMs(WAKE_MS));
+
+        // Too slow for 2 s, fits 5 s.
+        mGovernor = new FrameRateGovernor();
+        mGovernor.onWake(WAKE_MS);
+        mGovernor.onFrameDrawn(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals(5000, mGovernor.getPeriodMs(WAKE_MS));
+
+        // Nothing is slower than a minute.
+        mGovernor = new FrameRateGovernor();
+        mGovernor.onWake(WAKE_MS);
+        mGovernor.onFrameDrawn(TimeUnit.SECONDS.toNanos(30));
+        assertEquals(TimeUnit.MINUTES.toMillis(1), mGovernor.getPeriodMs(WAKE_MS));
+    }
+
+    @Test
+    public void averagesTheFrameCost() {
+        mGovernor.onFrameDrawn(TimeUnit.MILLISECONDS.toNanos(100));
+        // A single slow frame moves the average by an eighth of the difference only.
+        mGovernor.onFrameDrawn(TimeUnit.MILLISECONDS.toNanos(900));
+        assertEquals(1000, mGovernor.getPeriodMs(WAKE_MS));
+        for (int i = 0; i < 16; i++) {
+            mGovernor.onFrameDrawn(TimeUnit.MILLISECONDS.toNanos(900));
+        }
+        assertEquals(5000, mGovernor.getPeriodMs(WAKE_MS));
+    }
+
+    @Test
+    public void schedulesTicksOnWallClockMultiplesOfThePeriod() {
+        long uptimeMs = WAKE_MS + 10;
+        assertEquals(uptimeMs + 1000 - 345, mGovernor.getNextTickUptime(12345, uptimeMs));
+        assertEquals(uptimeMs + 1000, mGovernor.getNextTickUptime(12000, uptimeMs));
+
+        mGovernor.setMuted(true);
+        long minuteMs = TimeUnit.MINUTES.toMillis(1);
+        assertEquals(uptimeMs + minuteMs - 12345,
+                mGovernor.getNextTickUptime(10 * minuteMs + 12345, uptimeMs));
+    }
+
+    private static Intent createBatteryChanged(int level, int plugged) {
+        return new Intent(Intent.ACTION_BATTERY_CHANGED)
+                .putExtra(BatteryManager.EXTRA_LEVEL, level)
+                .putExtra(BatteryManager.EXTRA_SCALE, 100)
+                .putExtra(BatteryManager.EXTRA_PLUGGED, plugged);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Tests that a {@link MorphTable} generated from the bundled timeline resolves every count like
+ * the {@link MorphTimeline}, including counts past its last row, which fold back onto the
+ * repeating part of the last stage.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MorphTableTest {
+    /** The last stage of the bundled timeline starts here and only flickers from then on. */
+    private static final int PERIOD_START = 5000;
+    /** The flicker moduli of the last stage are 3, 2 and 8. */
+    private static final int PERIOD = 24;
+    /** Fewer rows than the period needs, so that the table extends itself to cover it. */
+    private static final int ROW_COUNT = 100;
+
+    private static final float RADIUS = 100;
+    private static final float STUB_LENGTH = 10;
+    private static final float INNER_RADIUS = 20;
+
+    private File mFile;
+    private MorphTimeline mTimeline;
+    private MorphTable mTable;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mFile = new File(context.getCacheDir(), "morph_table_test.bin");
+        mFile.delete();
+        mTimeline = MorphTimeline.load(context.getResources());
+        mTable = MorphTable.load(mFile, mTimeline, ROW_COUNT);
+        assertNotNull(mTable);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void bundledTimelineRepeatsFromTheLastStage() {
+        assertEquals(PERIOD_START, mTimeline.getPeriodStart());
+        assertEquals(PERIOD, mTimeline.getPeriod());
+    }
+
+    @Test
+    public void foldsCountsPastTheLastRow() {
+        int rowCount = PERIOD_START + PERIOD;
+        assertEquals(0, mTable.getRow(-1));
+        assertEquals(ROW_COUNT, mTable.getRow(ROW_COUNT));
+        assertEquals(rowCount - 1, mTable.getRow(rowCount - 1));
+        assertEquals(PERIOD_START, mTable.getRow(rowCount));
+        assertEquals(PERIOD_START + 1, mTable.getRow(rowCount + 1));
+        assertEquals(PERIOD_START + 5, mTable.getRow(rowCount + 2 * PERIOD + 5));
+        assertEquals(PERIOD_START + (100000 - PERIOD_START) % PERIOD, mTable.getRow(100000));
+    }
+
+    @Test
+    public void matchesTheTimelineForEveryRow() {
+        for (int count = 0; count < PERIOD_START + PERIOD; count++) {
+            assertSameFlakes(count);
+        }
+    }
+
+    @Test
+    public void matchesTheTimelinePastTheLastRow() {
+        for (int count = PERIOD_START + PERIOD; count < PERIOD_START + 10 * PERIOD; count++) {
+            assertSameFlakes(count);
+        }
+        // A count the steps face reaches on a long walk.
+        assertSameFlakes(123457);
+    }
+
+    @Test
+    public void reusesTheGeneratedFile() {
+        long modified = mFile.lastModified();
+        MorphTable table = MorphTable.load(mFile, mTimeline, ROW_COUNT);
+        assertNotNull(table);
+        assertEquals(modified, mFile.lastModified());
+    }
+
+    private void assertSameFlakes(int count) {
+        int stage = mTimeline.findStage(count);
+        assertEquals("Stage of count " + count, stage, mTable.findStage(count));
+        assertArrayEquals("Flakes of count " + count, getLines(mTimeline, count, stage),
+                getLines(mTable, count, stage), 1e-3f);
+    }
+
+    private static float[] getLines(MorphSource source, int count, int stage) {
+        SnowflakeGeometry geometry = new SnowflakeGeometry();
+        source.addFlakes(geometry, count, stage, MorphSource.FLAKES_ALL, RADIUS, STUB_LENGTH,
+                INNER_RADIUS);
+        return Arrays.copyOf(geometry.getLines(), geometry.getFloatCount());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests {@link MorphTimeline} against the timeline bundled in {@code arrays.xml}, and its
+ * parsing on small definitions.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MorphTimelineTest {
+    private static final float DELTA = 1e-5f;
+
+    private static final int[] THRESHOLDS = {0, 100, 200};
+    private static final String[] FLAKES = {
+            "0, flake, 6, 0.2, 0.6, 2, 0, 0, 1, 3, 0, 0, 0, 60",
+            "1, flake, 6, 0.6, 0.6, 2, 0, 0, 3, 3, 0, 0, 60, 60",
+            "1, mini, 5, 0.8, 0.8, 3, 1, 4, 2, 2, 0.5, 3, 30, 30",
+    };
+
+    private MorphTimeline mBundled;
+
+    @Before
+    public void setUp() {
+        mBundled = MorphTimeline.load(InstrumentationRegistry.getTargetContext().getResources());
+    }
+
+    /**
+     * Every flake still visible at the end of a stage carries on unchanged at the start of the
+     * next one, so the snowflake doesn't jump when the count crosses a threshold.
+     */
+    @Test
+    public void bundledKeyframesChainAcrossStages() {
+        int[] thresholds = InstrumentationRegistry.getTargetContext().getResources()
+                .getIntArray(R.array.morph_stage_thresholds);
+        for (int stage = 0; stage < mBundled.getStageCount() - 1; stage++) {
+            int count = thresholds[stage + 1];
+            assertEquals(stage + 1, mBundled.findStage(count));
+            for (int i = mBundled.getFirstFlake(stage); i < mBundled.getEndFlake(stage); i++) {
+                if (mBundled.getRadius(i, 1) == 0) {
+                    // Shrunk to nothing, it may end with its stage.
+                    continue;
+                }
+                assertTrue("Flake " + i + " of stage " + stage + " doesn't continue at " + count,
+                        hasContinuation(stage, i, count));
+            }
+        }
+    }
+
+    private boolean hasContinuation(int stage, int flake, int count) {
+        for (int i = mBundled.getFirstFlake(stage + 1); i < mBundled.getEndFlake(stage + 1); i++) {
+            if (mBundled.getKind(i) == mBundled.getKind(flake)
+                    && mBundled.getPoints(i) == mBundled.getPoints(flake)
+                    && mBundled.getStubs(i, count) == mBundled.getStubs(flake, count)
+                    && isNear(mBundled.getRadius(i, 0), mBundled.getRadius(flake, 1))
+                    && isNear(mBundled.getStubLength(i, count, 0),
+                            mBundled.getStubLength(flake, count, 1))
+                    && isNear(mBundled.getAngle(i, 0), mBundled.getAngle(flake, 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNear(float a, float b) {
+        return Math.abs(a - b) <= DELTA;
+    }
+
+    @Test
+    public void findStageClampsToFirstAndLastStage() {
+        MorphTimeline timeline = new MorphTimeline(THRESHOLDS, FLAKES);
+        assertEquals(0, timeline.findStage(-10));
+        assertEquals(0, timeline.findStage(0));
+        assertEquals(0, timeline.findStage(99));
+        assertEquals(1, timeline.findStage(100));
+        assertEquals(1, timeline.findStage(199));
+        assertEquals(1, timeline.findStage(5000));
+    }
+
+    @Test
+    public void interpolatesKeyframesOverTheStage() {
+        MorphTimeline timeline = new MorphTimeline(THRESHOLDS, FLAKES);
+        float progress = timeline.getProgress(50, 0);
+        assertEquals(0.5f, progress, DELTA);
+        assertEquals(0.4f, timeline.getRadius(0, progress), DELTA);
+        assertEquals(2, timeline.getStubLength(0, 50, progress), DELTA);
+        assertEquals(30, timeline.getAngle(0, progress), DELTA);
+
+        // Past the last threshold the end keyframes hold.
+        assertEquals(1, timeline.getProgress(5000, 1), DELTA);
+        assertEquals(0, timeline.getProgress(-10, 0), DELTA);
+    }
+
+    @Test
+    public void groupsFlakesByStage() {
+        MorphTimeline timeline = new MorphTimeline(THRESHOLDS, FLAKES);
+        assertEquals(2, timeline.getStageCount());
+        assertEquals(0, timeline.getFirstFlake(0));
+        assertEquals(1, timeline.getEndFlake(0));
+        assertEquals(1, timeline.getFirstFlake(1));
+        assertEquals(3, timeline.getEndFlake(1));
+        assertEquals(2, timeline.getMaxFlakesPerStage());
+        assertEquals(MorphTimeline.KIND_MINI, timeline.getKind(2));
+    }
+
+    @Test
+    public void flickersWithTheCountModulus() {
+        MorphTimeline timeline = new MorphTimeline(THRESHOLDS, FLAKES);
+        assertTrue(timeline.isFixed(1));
+        assertFalse(timeline.isFixed(2));
+        assertEquals(3, timeline.getStubs(2, 100));
+        assertEquals(6, timeline.getStubs(2, 103));
+        assertEquals(3, timeline.getStubs(2, 104));
+        assertEquals(3, timeline.getStubLength(2, 101, 1), DELTA);
+        // The last stage is constant apart from the flicker, which repeats every lcm(4, 3).
+        assertEquals(100, timeline.getPeriodStart());
+        assertEquals(12, timeline.getPeriod());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDescendingThresholds() {
+        new MorphTimeline(new int[] {0, 100, 50}, FLAKES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFlakesOutOfStageOrder() {
+        new MorphTimeline(THRESHOLDS, new String[] {FLAKES[1], FLAKES[0]});
+    }
+}
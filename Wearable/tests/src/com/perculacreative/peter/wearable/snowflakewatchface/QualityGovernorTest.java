@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.perculacreative.peter.wearable.snowflakewatchface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the hysteresis of {@link QualityGovernor}: the level drops after a couple of slow
+ * frames, rises only after a whole window of fast ones, and holds in between.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QualityGovernorTest {
+    private static final int WINDOW_SIZE = 16;
+
+    private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    /** Neither slow enough to drop the level nor fast enough to raise it. */
+    private static final long MEDIUM_NANOS = TimeUnit.MILLISECONDS.toNanos(8);
+    private static final long FAST_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private QualityGovernor mGovernor;
+
+    @Before
+    public void setUp() {
+        mGovernor = new QualityGovernor();
+    }
+
+    @Test
+    public void dropsOneLevelAfterTwoSlowFrames() {
+        assertFalse(mGovernor.onFrameDrawn(SLOW_NANOS));
+        assertEquals(QualityGovernor.QUALITY_FULL, mGovernor.getLevel());
+        assertTrue(mGovernor.onFrameDrawn(SLOW_NANOS));
+        assertEquals(QualityGovernor.QUALITY_REDUCED, mGovernor.getLevel());
+        assertFalse(mGovernor.hasShadows());
+    }
+
+    @Test
+    public void judgesANewLevelByItsOwnFrames() {
+        degrade();
+        // The slow frames before the drop don't count against the new level.
+        assertFalse(mGovernor.onFrameDrawn(SLOW_NANOS));
+        assertEquals(QualityGovernor.QUALITY_REDUCED, mGovernor.getLevel());
+        assertTrue(mGovernor.onFrameDrawn(SLOW_NANOS));
+        assertEquals(QualityGovernor.QUALITY_MINIMAL, mGovernor.getLevel());
+        assertFalse(mGovernor.isSnowflakeAntiAlias());
+    }
+
+    @Test
+    public void staysAtTheLowestLevel() {
+        degrade();
+        degrade();
+        for (int i = 0; i < 2 * WINDOW_SIZE; i++) {
+            assertFalse(mGovernor.onFrameDrawn(SLOW_NANOS));
+        }
+        assertEquals(QualityGovernor.QUALITY_MINIMAL, mGovernor.getLevel());
+    }
+
+    @Test
+    public void risesOnlyAfterAWholeWindowOfFastFrames() {
+        degrade();
+        for (int i = 0; i < WINDOW_SIZE - 1; i++) {
+            assertFalse(mGovernor.onFrameDrawn(FAST_NANOS));
+        }
+        assertTrue(mGovernor.onFrameDrawn(FAST_NANOS));
+        assertEquals(QualityGovernor.QUALITY_FULL, mGovernor.getLevel());
+    }
+
+    @Test
+    public void holdsTheLevelBetweenBothThresholds() {
+        degrade();
+        for (int i = 0; i < 4 * WINDOW_SIZE; i++) {
+            assertFalse(mGovernor.onFrameDrawn(MEDIUM_NANOS));
+        }
+        assertEquals(QualityGovernor.QUALITY_REDUCED, mGovernor.getLevel());
+
+        // A single slow frame in the window holds off the rise as well.
+        assertFalse(mGovernor.onFrameDrawn(SLOW_NANOS));
+        for (int i = 0; i < WINDOW_SIZE - 1; i++) {
+            assertFalse(mGovernor.onFrameDrawn(FAST_NANOS));
+        }
+        assertTrue(mGovernor.onFrameDrawn(FAST_NANOS));
+        assertEquals(QualityGovernor.QUALITY_FULL, mGovernor.getLevel());
+    }
+
+    @Test
+    public void leavesSkippedFramesOutOfTheWindow() {
+        mGovernor.skipNextFrame();
+        assertFalse(mGovernor.onFrameDrawn(SLOW_NANOS));
+        assertFalse(mGovernor.onFrameDrawn(SLOW_NANOS));
+        assertEquals(QualityGovernor.QUALITY_FULL, mGovernor.getLevel());
+
+        // Only the next frame is skipped.
+        assertTrue(mGovernor.onFrameDrawn(SLOW_NANOS));
+    }
+
+    @Test
+    public void capsTheLevelInPowerSaveMode() {
+        assertTrue(mGovernor.setPowerSaveMode(true));
+        assertEquals(QualityGovernor.QUALITY_REDUCED, mGovernor.getLevel());
+        for (int i = 0; i < 2 * WINDOW_SIZE; i++) {
+            assertFalse(mGovernor.onFrameDrawn(FAST_NANOS));
+        }
+        assertEquals(QualityGovernor.QUALITY_REDUCED, mGovernor.getLevel());
+
+        assertTrue(mGovernor.setPowerSaveMode(false));
+        assertEquals(QualityGovernor.QUALITY_FULL, mGovernor.getLevel());
+        assertFalse(mGovernor.setPowerSaveMode(false));
+    }
+
+    /** Drops the level by one with two slow frames. */
+    private void degrade() {
+        int level = mGovernor.getLevel();
+        mGovernor.onFrameDrawn(SLOW_NANOS);
+        mGovernor.onFrameDrawn(SLOW_NANOS);
+        assertEquals(level + 1, mGovernor.getLevel());
+    }
+}